@@ -23,6 +23,7 @@
 package core;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 
@@ -50,6 +51,11 @@ public class DTNHost implements Comparable<DTNHost> {
 	
 	/** Host's list of interests - for SCORP **/
 	private List<String> hostInterests;
+	/** Bits of the host's interests (computed when needed) */
+	private BitSet interestBits;
+	/** Trie of the host's interests, with hierarchical topics (computed 
+	 * when needed) */
+	private TopicTrie<String> interestTrie;
 	
 	private List<MessageListener> msgListeners;
 	private List<MovementListener> movListeners;
@@ -408,7 +414,9 @@ public class DTNHost implements Comparable<DTNHost> {
 				i.update();
 			}
 		}
-		this.router.update();
+		if (this.router.isUpdateDue()) {
+			this.router.update();
+		}
 	}
 
 	/**
@@ -451,6 +459,54 @@ public class DTNHost implements Comparable<DTNHost> {
 		this.location.translate(dx, dy);
 	}	
 
+	/**
+	 * Returns the time when the movement of this host changes next, i.e. when
+	 * a waiting host starts moving or when a moving host reaches its next
+	 * waypoint. Returns the current time if the host needs a new path now.
+	 * @return The time of the next movement change
+	 */
+	public double getNextMovementChange() {
+		double now = SimClock.getTime();
+		if (!isActive()) {
+			return Double.MAX_VALUE;
+		}
+		if (now < this.nextTimeToMove) {
+			return this.nextTimeToMove;
+		}
+		if (this.destination == null || this.speed <= 0) {
+			return now;
+		}
+		double distance = this.location.distance(this.destination);
+		if (distance == 0) {
+			return now;
+		}
+		return now + distance / this.speed;
+	}
+
+	/**
+	 * Returns the speed this host is moving at (0 if it isn't moving)
+	 * @return The current speed
+	 */
+	public double getCurrentSpeed() {
+		if (!isActive() || SimClock.getTime() < this.nextTimeToMove ||
+				this.destination == null) {
+			return 0;
+		}
+		return this.speed;
+	}
+
+	/**
+	 * Returns the longest transmit range of this host's interfaces
+	 * @return The transmit range (meters)
+	 */
+	public double getMaxTransmitRange() {
+		double range = 0;
+		for (NetworkInterface ni : net) {
+			range = Math.max(range, ni.getTransmitRange());
+		}
+		return range;
+	}
+
 	/**
 	 * Sets the next destination and speed to correspond the next waypoint
 	 * on the path.
@@ -587,5 +643,90 @@ public class DTNHost implements Comparable<DTNHost> {
 		// TODO Auto-generated method stub
 		return this.hostInterests;
 	}
+	
+	/**
+	 * Returns the bits of the host's interests in the interest index of the
+	 * scenario - for SCORP
+	 * @return The interest bits
+	 */
+	public BitSet getInterestBits() {
+		if (this.interestBits == null) {
+			this.interestBits = SimScenario.getInstance().getInterestIndex().
+				getInterestBits(this.hostInterests);
+		}
+		return this.interestBits;
+	}
+	
+	/**
+	 * Returns a trie of the host's interests (topic filters) for matching 
+	 * hierarchical topics - for SCORP
+	 * @return The trie with each interest as the value of its filter
+	 */
+	public TopicTrie<String> getInterestTrie() {
+		if (this.interestTrie == null) {
+			this.interestTrie = new TopicTrie<String>();
+			for (String interest : this.hostInterests) {
+				this.interestTrie.put(interest, interest);
+			}
+		}
+		return this.interestTrie;
+	}
+
+	/**
+	 * Adds an interest to the host during the simulation - for SCORP.
+	 * The interest index and the routers of the connected peers are
+	 * updated.
+	 * @param interest The interest
+	 * @return true if the host didn't have the interest yet
+	 */
+	public boolean addInterest(String interest) {
+		if (this.hostInterests.contains(interest)) {
+			return false;
+		}
+		this.hostInterests.add(interest);
+		InterestIndex index = SimScenario.getInstance().getInterestIndex();
+		index.addInterest(this, interest);
+		if (this.interestBits != null) {
+			this.interestBits.set(index.getInterestBit(interest));
+		}
+		if (this.interestTrie != null) {
+			this.interestTrie.put(interest, interest);
+		}
+		notifyInterestsChanged();
+		return true;
+	}
+
+	/**
+	 * Removes an interest of the host during the simulation - for SCORP.
+	 * The interest index and the routers of the connected peers are
+	 * updated.
+	 * @param interest The interest
+	 * @return true if the host had the interest
+	 */
+	public boolean removeInterest(String interest) {
+		if (!this.hostInterests.remove(interest)) {
+			return false;
+		}
+		InterestIndex index = SimScenario.getInstance().getInterestIndex();
+		index.removeInterest(this, interest);
+		if (this.interestBits != null) {
+			this.interestBits.clear(index.getInterestBit(interest));
+		}
+		if (this.interestTrie != null) {
+			this.interestTrie.remove(interest);
+		}
+		notifyInterestsChanged();
+		return true;
+	}
+
+	/**
+	 * Lets the routers of the connected peers know that the interests of
+	 * this host changed
+	 */
+	private void notifyInterestsChanged() {
+		for (Connection c : getConnections()) {
+			c.getOtherNode(this).getRouter().peerInterestsChanged(c);
+		}
+	}
 
 }
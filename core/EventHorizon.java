@@ -0,0 +1,187 @@
+/**
+ * EventHorizon.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package core;
+
+import input.EventQueue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the time of the next event that can change the state of the
+ * simulation: the next external event, the end of the current slot, the next
+ * event of a router (e.g. a TTL expiry), the next change in the movement of
+ * a host or the earliest time two hosts can get in or out of range of each
+ * other. Nothing but movement happens before that time, so the simulation
+ * can skip the update intervals in between.
+ */
+public class EventHorizon {
+
+	/**
+	 * Returns the time of the next event. If something can happen at any time
+	 * (e.g. a transfer is going on) the current time is returned.
+	 * @param hosts The hosts of the simulation
+	 * @param eventQueues The external event queues (or null if none)
+	 * @param simulateConnections Are the connections simulated (if not,
+	 * they come from the external events)
+	 * @return The time of the next event
+	 */
+	public static double getNextEventTime(List<DTNHost> hosts,
+			List<EventQueue> eventQueues, boolean simulateConnections) {
+		double now = SimClock.getTime();
+		double next = SlotTimeCheck.getNextSlotEnd(now);
+
+		if (eventQueues != null) {
+			for (EventQueue eq : eventQueues) {
+				next = Math.min(next, eq.nextEventsTime());
+			}
+		}
+
+		for (DTNHost h : hosts) {
+			next = Math.min(next, h.getRouter().getNextEventTime());
+			next = Math.min(next, h.getNextMovementChange());
+			if (next <= now) {
+				return now;
+			}
+		}
+
+		if (simulateConnections) {
+			next = Math.min(next, now + getTimeToContactChange(hosts, next - now));
+		}
+		return Math.max(next, now);
+	}
+
+	/**
+	 * Returns a lower bound for the time it takes until any pair of hosts
+	 * gets in or out of range of each other. Both hosts of a pair are
+	 * assumed to move straight towards (or away from) each other at their
+	 * current speed, so the bound of a pair is the distance to its range
+	 * border divided by the sum of their speeds.
+	 * <P>
+	 * The hosts are put in a grid of cells as wide as the largest range. 
+	 * Each moving host looks at the cells around it ring by ring, and stops
+	 * when the hosts of the next ring are too far to get in range before 
+	 * the bound found so far. The pairs that set the bound (near hosts) are
+	 * thus all checked, and the far ones are skipped without looking at 
+	 * them.
+	 * </P>
+	 * @param hosts The hosts of the simulation
+	 * @param horizon Time (seconds) until the next other event: a longer 
+	 * time isn't needed
+	 * @return The time (seconds) until the next possible connectivity change
+	 */
+	private static double getTimeToContactChange(List<DTNHost> hosts,
+			double horizon) {
+		double maxSpeed = 0;
+		double maxRange = 0;
+		for (DTNHost h : hosts) {
+			maxSpeed = Math.max(maxSpeed, h.getCurrentSpeed());
+			maxRange = Math.max(maxRange, h.getMaxTransmitRange());
+		}
+		if (maxSpeed <= 0) {
+			return Double.MAX_VALUE; // nobody moves: no link state changes
+		}
+
+		double cellSize = Math.max(maxRange, 1);
+		Map<Long, List<DTNHost>> cells = new HashMap<Long, List<DTNHost>>();
+		long minX = Long.MAX_VALUE, maxX = Long.MIN_VALUE;
+		long minY = Long.MAX_VALUE, maxY = Long.MIN_VALUE;
+		for (DTNHost h : hosts) {
+			long x = getCellX(h.getLocation(), cellSize);
+			long y = getCellY(h.getLocation(), cellSize);
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+			Long key = getCell(x, y);
+			List<DTNHost> cell = cells.get(key);
+			if (cell == null) {
+				cell = new ArrayList<DTNHost>();
+				cells.put(key, cell);
+			}
+			cell.add(h);
+		}
+
+		double min = horizon;
+		for (DTNHost h : hosts) {
+			double speed = h.getCurrentSpeed();
+			if (speed <= 0) {
+				continue; // its pairs are checked from the moving hosts
+			}
+			Coord c = h.getLocation();
+			long cx = getCellX(c, cellSize);
+			long cy = getCellY(c, cellSize);
+			/* no hosts beyond this ring */
+			long lastRing = Math.max(Math.max(cx - minX, maxX - cx),
+					Math.max(cy - minY, maxY - cy));
+			for (long ring = 0; ring <= lastRing; ring++) {
+				/* hosts in this ring are at least ring - 1 cells away */
+				if (((ring - 1) * cellSize - maxRange) / (speed + maxSpeed) 
+						>= min) {
+					break;
+				}
+				for (long x = cx - ring; x <= cx + ring; x++) {
+					/* only the border of the ring */
+					long step = (x == cx - ring || x == cx + ring) ? 
+							1 : 2 * ring;
+					for (long y = cy - ring; y <= cy + ring; y += step) {
+						List<DTNHost> cell = cells.get(getCell(x, y));
+						if (cell == null) {
+							continue;
+						}
+						for (DTNHost other : cell) {
+							if (other == h) {
+								continue;
+							}
+							double range = Math.min(h.getMaxTransmitRange(),
+									other.getMaxTransmitRange());
+							double dist = c.distance(other.getLocation());
+							min = Math.min(min, Math.abs(dist - range) / 
+									(speed + other.getCurrentSpeed()));
+							if (min == 0) {
+								return 0;
+							}
+						}
+					}
+				}
+			}
+		}
+		return min;
+	}
+
+	private static long getCellX(Coord c, double cellSize) {
+		return (long)Math.floor(c.getX() / cellSize);
+	}
+
+	private static long getCellY(Coord c, double cellSize) {
+		return (long)Math.floor(c.getY() / cellSize);
+	}
+
+	/**
+	 * Returns the key of a grid cell
+	 */
+	private static Long getCell(long x, long y) {
+		return (x << 32) ^ (y & 0xFFFFFFFFL);
+	}
+}
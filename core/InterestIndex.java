@@ -0,0 +1,327 @@
+/**
+ * InterestIndex.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the hosts interested in each content type - for SCORP.
+ * The index is filled by the SimScenario while the hosts are created, so
+ * the number of hosts a content-based message is expected to reach can be
+ * looked up without scanning all the hosts. Interests added to or removed 
+ * from a host later on are updated in place.
+ * <P>
+ * Every interest (or content type) seen also gets a bit, so hosts and
+ * messages can keep their interests as bitsets and a message with several
+ * content types is matched against a host by intersection.
+ * </P><P>
+ * With hierarchical topics the interests are topic filters (see 
+ * {@link TopicTrie}) and the hosts interested in a content type are found
+ * through a trie of all the filters instead.
+ * </P>
+ */
+public class InterestIndex {
+	/** Hosts per interest */
+	private Map<String, List<DTNHost>> hostsByInterest;
+	/** Bit of each interest */
+	private Map<String, Integer> interestBits;
+	/** Number of hosts interested in any of the content types of the 
+	 * multi-interest messages, by content type */
+	private Map<String, Integer> audienceSizes;
+	/** Are the interests hierarchical topic filters */
+	private boolean hierarchical;
+	/** Trie of the interests (topic filters) and their hosts, when
+	 * hierarchical (null when it must be rebuilt) */
+	private TopicTrie<List<DTNHost>> topicTrie;
+	/** Number of interests hosts joined or left during the simulation */
+	private int nrofChanges;
+
+	/**
+	 * Creates an empty interest index of flat interests.
+	 */
+	public InterestIndex() {
+		this(false);
+	}
+
+	/**
+	 * Creates an empty interest index.
+	 * @param hierarchical Are the interests hierarchical topic filters
+	 */
+	public InterestIndex(boolean hierarchical) {
+		this.hostsByInterest = new HashMap<String, List<DTNHost>>();
+		this.interestBits = new HashMap<String, Integer>();
+		this.audienceSizes = new HashMap<String, Integer>();
+		this.hierarchical = hierarchical;
+	}
+
+	/**
+	 * Returns true if the interests are hierarchical topic filters
+	 * @return true for hierarchical topics
+	 */
+	public boolean isHierarchical() {
+		return this.hierarchical;
+	}
+
+	/**
+	 * Returns the number of interests hosts joined or left during the
+	 * simulation. Caches built from host interests are stale when it changes.
+	 * @return The number of interest changes
+	 */
+	public int getNrofChanges() {
+		return this.nrofChanges;
+	}
+
+	/**
+	 * Adds the interests of a host to the index
+	 * @param host The host to index
+	 */
+	public void addHost(DTNHost host) {
+		for (String interest : host.getInterests()) {
+			List<DTNHost> hosts = hostsByInterest.get(interest);
+			if (hosts == null) {
+				hosts = new ArrayList<DTNHost>();
+				hostsByInterest.put(interest, hosts);
+			}
+			if (!hosts.contains(host)) {
+				hosts.add(host);
+			}
+		}
+		audienceSizes.clear();
+		topicTrie = null;
+	}
+
+	/**
+	 * Adds an interest of a host that joined it during the simulation
+	 * @param host The host
+	 * @param interest The interest
+	 */
+	public void addInterest(DTNHost host, String interest) {
+		List<DTNHost> hosts = hostsByInterest.get(interest);
+		if (hosts == null) {
+			hosts = new ArrayList<DTNHost>();
+			hostsByInterest.put(interest, hosts);
+			if (topicTrie != null) {
+				topicTrie.put(interest, hosts);
+			}
+		}
+		if (!hosts.contains(host)) {
+			hosts.add(host);
+			forgetAudiences(interest);
+			nrofChanges++;
+		}
+	}
+
+	/**
+	 * Removes an interest a host left during the simulation
+	 * @param host The host
+	 * @param interest The interest
+	 */
+	public void removeInterest(DTNHost host, String interest) {
+		List<DTNHost> hosts = hostsByInterest.get(interest);
+		if (hosts == null || !hosts.remove(host)) {
+			return;
+		}
+		if (hosts.isEmpty()) {
+			hostsByInterest.remove(interest);
+			if (topicTrie != null) {
+				topicTrie.remove(interest);
+			}
+		}
+		forgetAudiences(interest);
+		nrofChanges++;
+	}
+
+	/**
+	 * Drops the cached audience sizes of the content types an interest 
+	 * matches, the others stay valid
+	 */
+	private void forgetAudiences(String interest) {
+		TopicTrie<String> filter = null;
+		if (hierarchical) {
+			filter = new TopicTrie<String>();
+			filter.put(interest, interest);
+		}
+		for (Iterator<String> i = audienceSizes.keySet().iterator(); 
+				i.hasNext();) {
+			for (String type : 
+					i.next().split(Message.CONTENT_TYPE_SEPARATOR)) {
+				if (filter == null ? type.equals(interest) : 
+						filter.matches(type)) {
+					i.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the bit of an interest, giving it the next free bit if it
+	 * hasn't got one yet
+	 * @param interest The interest (or content type)
+	 * @return The bit
+	 */
+	public int getInterestBit(String interest) {
+		Integer bit = interestBits.get(interest);
+		if (bit == null) {
+			bit = interestBits.size();
+			interestBits.put(interest, bit);
+		}
+		return bit;
+	}
+
+	/**
+	 * Returns the bitset of the given interests
+	 * @param interests The interests (or content types)
+	 * @return A new bitset with the bits of the interests set
+	 */
+	public BitSet getInterestBits(Collection<String> interests) {
+		BitSet bits = new BitSet();
+		for (String interest : interests) {
+			bits.set(getInterestBit(interest));
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the hosts interested in the given content type
+	 * @param interest The content type
+	 * @return The interested hosts (an empty list if there are none)
+	 */
+	public List<DTNHost> getInterestedHosts(String interest) {
+		List<DTNHost> hosts = hostsByInterest.get(interest);
+		if (hosts == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(hosts);
+	}
+
+	/**
+	 * Returns the number of hosts interested in the given content type
+	 * @param interest The content type
+	 * @return The number of interested hosts
+	 */
+	public int getNrofInterestedHosts(String interest) {
+		List<DTNHost> hosts = hostsByInterest.get(interest);
+		return hosts == null ? 0 : hosts.size();
+	}
+
+	/**
+	 * Returns the number of deliveries expected for a message, i.e. the
+	 * number of hosts interested in the message's content type except for
+	 * the host that created it.
+	 * @param m The message
+	 * @return The expected number of deliveries
+	 */
+	public int getNrofExpectedRecipients(Message m) {
+		List<String> types = m.getContentTypes();
+		int expected;
+		if (types.size() == 1 && !hierarchical) {
+			expected = getNrofInterestedHosts(types.get(0));
+		}
+		else {
+			expected = getNrofInterestedHosts(m.getContentType(), types);
+		}
+		DTNHost from = m.getFrom();
+		if (from != null && m.isOfInterestTo(from)) {
+			expected--;
+		}
+		return expected;
+	}
+
+	/**
+	 * Returns the number of deliveries expected for a message that count 
+	 * for one of its content types, i.e. the number of hosts interested in 
+	 * that content type except for the host that created the message.
+	 * @param m The message
+	 * @param type One of the content types of the message
+	 * @return The expected number of deliveries for the content type
+	 */
+	public int getNrofExpectedRecipients(Message m, String type) {
+		int expected = hierarchical ? 
+			getNrofInterestedHosts(type, Collections.singletonList(type)) :
+			getNrofInterestedHosts(type);
+		DTNHost from = m.getFrom();
+		if (from != null && isInterested(from, type)) {
+			expected--;
+		}
+		return expected;
+	}
+
+	/**
+	 * Returns true if a host is interested in a content type
+	 * @param host The host
+	 * @param type The content type
+	 * @return true if any interest of the host matches the content type
+	 */
+	public boolean isInterested(DTNHost host, String type) {
+		if (hierarchical) {
+			return host.getInterestTrie().matches(type);
+		}
+		return host.getInterestBits().get(getInterestBit(type));
+	}
+
+	/**
+	 * Returns the number of hosts interested in any of the given content
+	 * types (each host is counted once)
+	 * @param key Key of the content types for caching the result
+	 * @param types The content types
+	 * @return The number of interested hosts
+	 */
+	private int getNrofInterestedHosts(String key, List<String> types) {
+		Integer size = audienceSizes.get(key);
+		if (size == null) {
+			Set<DTNHost> audience = new HashSet<DTNHost>();
+			for (String type : types) {
+				if (!hierarchical) {
+					audience.addAll(getInterestedHosts(type));
+					continue;
+				}
+				if (topicTrie == null) {
+					topicTrie = new TopicTrie<List<DTNHost>>(hostsByInterest);
+				}
+				for (List<DTNHost> hosts : topicTrie.match(type)) {
+					audience.addAll(hosts);
+				}
+			}
+			size = audience.size();
+			audienceSizes.put(key, size);
+		}
+		return size;
+	}
+
+	/**
+	 * Returns all the interests known by the index
+	 * @return The interests
+	 */
+	public Set<String> getInterests() {
+		return Collections.unmodifiableSet(hostsByInterest.keySet());
+	}
+}
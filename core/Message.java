@@ -22,6 +22,8 @@
 package core;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +35,8 @@ import java.util.Set;
 public class Message implements Comparable<Message> {
 	/** Value for infinite TTL of message */
 	public static final int INFINITE_TTL = -1;
+	/** Separator of the content types of a message with several of them */
+	public static final String CONTENT_TYPE_SEPARATOR = ",";
 	private DTNHost from;
 	private DTNHost to;
 	/** Identifier of the message */
@@ -41,6 +45,8 @@ public class Message implements Comparable<Message> {
 	private int size;
 	/** List of nodes this message has passed */
 	private List<DTNHost> path; 
+	/** Compact set of the nodes this message has passed */
+	private VisitedHostFilter visited;
 	/** Next unique identifier to be given */
 	private static int nextUniqueId;
 	/** Unique ID of this message */
@@ -54,6 +60,10 @@ public class Message implements Comparable<Message> {
 	
 	/** Type message - interest - for SCORP**/
 	private String contentType;
+	/** Content types of the message (parsed from contentType when needed) */
+	private List<String> contentTypes;
+	/** Interest bits of the content types (computed when needed) */
+	private BitSet contentBits;
 	
 	/** if a response to this message is required, this is the size of the 
 	 * response message (or 0 if no response is requested) */
@@ -88,7 +98,8 @@ public class Message implements Comparable<Message> {
 		this.id = id;
 		this.size = size;
 		this.path = new ArrayList<DTNHost>();
-		this.uniqueId = nextUniqueId;
+		this.visited = new VisitedHostFilter();
+		this.uniqueId = nextUniqueId++;
 		
 		this.timeCreated = SimClock.getTime();
 		this.timeReceived = this.timeCreated;
@@ -98,7 +109,6 @@ public class Message implements Comparable<Message> {
 		this.properties = null;
 		this.appID = null;
 		
-		Message.nextUniqueId++;
 		addNodeOnPath(from);
 	}
 	
@@ -108,7 +118,8 @@ public class Message implements Comparable<Message> {
 		this.id = id;
 		this.size = size;
 		this.path = new ArrayList<DTNHost>();
-		this.uniqueId = nextUniqueId;
+		this.visited = new VisitedHostFilter();
+		this.uniqueId = nextUniqueId++;
 		
 		/** Type message - interest - for SCORP**/
 		this.contentType = typeContent;
@@ -121,7 +132,6 @@ public class Message implements Comparable<Message> {
 		this.properties = null;
 		this.appID = null;
 		
-		Message.nextUniqueId++;
 		addNodeOnPath(from);
 	}
 	
@@ -150,13 +160,60 @@ public class Message implements Comparable<Message> {
 	}
 	
 	/**
-	 * Returns the content type of the message - for SCORP
+	 * Returns the content type of the message - for SCORP. For a message 
+	 * with several content types this is the list of them separated by
+	 * {@value #CONTENT_TYPE_SEPARATOR}.
 	 * @return The message content
 	 */
 	public String getContentType() {
 		return this.contentType;
 	}
 	
+	/**
+	 * Returns the content types of the message - for SCORP
+	 * @return The content types (an empty list if the message has none)
+	 */
+	public List<String> getContentTypes() {
+		if (this.contentTypes == null) {
+			List<String> types = new ArrayList<String>();
+			if (this.contentType != null) {
+				for (String type : this.contentType.split(CONTENT_TYPE_SEPARATOR)) {
+					type = type.trim();
+					if (type.length() > 0 && !types.contains(type)) {
+						types.add(type);
+					}
+				}
+			}
+			this.contentTypes = Collections.unmodifiableList(types);
+		}
+		return this.contentTypes;
+	}
+	
+	/**
+	 * Returns true if the host is interested in any of the content types of
+	 * the message - for SCORP. The check is an intersection of the interest
+	 * bits of the message and the host (see {@link InterestIndex}) or, with
+	 * hierarchical topics, a lookup of the content types in the host's trie
+	 * of topic filters.
+	 * @param host The host
+	 * @return true if the host is an intended recipient of the message
+	 */
+	public boolean isOfInterestTo(DTNHost host) {
+		InterestIndex index = SimScenario.getInstance().getInterestIndex();
+		if (index.isHierarchical()) {
+			for (String type : getContentTypes()) {
+				if (host.getInterestTrie().matches(type)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (this.contentBits == null) {
+			this.contentBits = index.getInterestBits(getContentTypes());
+		}
+		return this.contentBits.intersects(host.getInterestBits());
+	}
+	
 	
 	/**
 	 * Returns an ID that is unique per message instance 
@@ -181,6 +238,19 @@ public class Message implements Comparable<Message> {
 	 */
 	public void addNodeOnPath(DTNHost node) {
 		this.path.add(node);
+		if (node != null) {
+			this.visited.add(node);
+		}
+	}
+	
+	/**
+	 * Returns true if the message has (probably) passed the given node. The 
+	 * check takes constant time; see {@link VisitedHostFilter}.
+	 * @param node The node
+	 * @return true if the node is on the message's path
+	 */
+	public boolean hasVisited(DTNHost node) {
+		return this.visited.contains(node);
 	}
 	
 	/**
@@ -290,6 +360,8 @@ public class Message implements Comparable<Message> {
 	 */
 	public void setContentType(String typeContent) {
 		this.contentType = typeContent;
+		this.contentTypes = null;
+		this.contentBits = null;
 	}
 	
 	/**
@@ -317,6 +389,7 @@ public class Message implements Comparable<Message> {
 	 */
 	protected void copyFrom(Message m) {
 		this.path = new ArrayList<DTNHost>(m.path);
+		this.visited = m.visited.copy();
 		this.timeCreated = m.timeCreated;
 		this.responseSize = m.responseSize;
 		this.requestMsg  = m.requestMsg;
@@ -325,6 +398,8 @@ public class Message implements Comparable<Message> {
 		
 		/**  - for SCORP */ 
 		this.contentType = m.contentType;
+		this.contentTypes = m.contentTypes;
+		this.contentBits = m.contentBits;
 		
 		if (m.properties != null) {
 			Set<String> keys = m.properties.keySet();
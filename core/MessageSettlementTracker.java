@@ -0,0 +1,128 @@
+/**
+ * MessageSettlementTracker.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package core;
+
+import input.EventQueue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps track of whether all created messages are settled, i.e. they have
+ * either reached all the interested hosts or their TTL has expired (and so
+ * they can't be delivered anymore by any host). Used for stopping the
+ * simulation early when nothing can change the results anymore.
+ */
+public class MessageSettlementTracker implements MessageListener {
+	/** Deliveries still expected per message */
+	private Map<String, Integer> pendingDeliveries;
+	/** Expiry times of the unsettled messages, the earliest first */
+	private PriorityQueue<Expiry> expiries;
+
+	/**
+	 * Creates a new tracker with no messages.
+	 */
+	public MessageSettlementTracker() {
+		this.pendingDeliveries = new HashMap<String, Integer>();
+		this.expiries = new PriorityQueue<Expiry>();
+	}
+
+	/**
+	 * Returns true if every created message is settled and there are no more
+	 * external events that could create new messages. Any pending event of
+	 * the external event queues is considered a possible message creation.
+	 * @param eventQueues The external event queues of the scenario
+	 * @return true if the rest of the simulation can't change the results
+	 */
+	public boolean isSettled(List<EventQueue> eventQueues) {
+		double now = SimClock.getTime();
+		while (!expiries.isEmpty() && expiries.peek().time <= now) {
+			pendingDeliveries.remove(expiries.poll().id);
+		}
+		if (!pendingDeliveries.isEmpty()) {
+			return false;
+		}
+
+		if (eventQueues != null) {
+			for (EventQueue eq : eventQueues) {
+				if (eq.nextEventsTime() != Double.MAX_VALUE) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	public void newMessage(Message m) {
+		int expected = SimScenario.getInstance().getInterestIndex().
+			getNrofExpectedRecipients(m);
+		if (expected <= 0) {
+			return;
+		}
+		pendingDeliveries.put(m.getId(), expected);
+
+		int ttl = m.getTtl();
+		if (ttl != Integer.MAX_VALUE) {
+			/* no host accepts the message after this */
+			expiries.add(new Expiry(m.getId(),
+					m.getCreationTime() + ttl * 60.0));
+		}
+	}
+
+	public void messageTransferred(Message m, DTNHost from, DTNHost to,
+			boolean firstDelivery) {
+		if (!firstDelivery) {
+			return;
+		}
+		Integer pending = pendingDeliveries.get(m.getId());
+		if (pending == null) {
+			return;
+		}
+		if (pending <= 1) {
+			pendingDeliveries.remove(m.getId());
+		}
+		else {
+			pendingDeliveries.put(m.getId(), pending - 1);
+		}
+	}
+
+	public void messageTransferStarted(Message m, DTNHost from, DTNHost to) {}
+	public void messageDeleted(Message m, DTNHost where, boolean dropped) {}
+	public void messageTransferAborted(Message m, DTNHost from, DTNHost to) {}
+
+	/** Expiry time of a message */
+	private static class Expiry implements Comparable<Expiry> {
+		private String id;
+		private double time;
+
+		private Expiry(String id, double time) {
+			this.id = id;
+			this.time = time;
+		}
+
+		public int compareTo(Expiry other) {
+			return Double.compare(this.time, other.time);
+		}
+	}
+}
@@ -32,7 +32,9 @@ import java.util.List;
 import movement.MapBasedMovement;
 import movement.MovementModel;
 import movement.map.SimMap;
+import routing.DecisionEngineRouter;
 import routing.MessageRouter;
+import routing.TeciCheckpoint;
 
 /**
  * A simulation scenario used for getting and storing the settings of a
@@ -57,6 +59,22 @@ public class SimScenario implements Serializable {
 	public static final String UP_INT_S = "updateInterval";
 	/** simulate connections -setting id ({@value})*/
 	public static final String SIM_CON_S = "simulateConnections";
+	/** contacts-only TECI warm-up period -setting id ({@value}). 
+	 * Until this time only mobility, connectivity and TECI bookkeeping are 
+	 * simulated (no message creation, transfers or TTL checks). */
+	public static final String TECI_WARMUP_S = "teciWarmup";
+	/** stop when all messages are settled -setting id ({@value}). If true,
+	 * the simulation can end as soon as every message has reached all the 
+	 * interested hosts or expired and no more external events are left. */
+	public static final String STOP_SETTLED_S = "stopWhenSettled";
+	/** skip idle update intervals -setting id ({@value}). If true, the 
+	 * simulation advances directly to the update interval of the next event
+	 * that can change its state (see {@link EventHorizon}). */
+	public static final String EVENT_HORIZON_S = "eventHorizon";
+	/** hierarchical topics -setting id ({@value}). If true, interests and
+	 * content types are topics with levels separated by "/" and interests 
+	 * can use the MQTT wildcards "+" and "#" (see {@link TopicTrie}). */
+	public static final String HIERARCHICAL_TOPICS_S = "hierarchicalTopics";
 
 	/** namespace for interface type settings ({@value}) */
 	public static final String INTTYPE_NS = "Interface";
@@ -128,8 +146,22 @@ public class SimScenario implements Serializable {
 	private EventQueueHandler eqHandler;
 	/** Should connections between hosts be simulated */
 	private boolean simulateConnections;
+	/** End time of the contacts-only TECI warm-up */
+	private double teciWarmupTime;
+	/** Number of messages not created because of the TECI warm-up */
+	private int nrofWarmupSkips;
+	/** Tracks if the messages are settled (null if early stop is off) */
+	private MessageSettlementTracker settlementTracker;
+	/** Should idle update intervals be skipped */
+	private boolean eventHorizon;
+	/** Are the interests hierarchical topics */
+	private boolean hierarchicalTopics;
 	/** Map used for host movement (if any) */
 	private SimMap simMap;
+	/** Hosts per interest - for SCORP */
+	private InterestIndex interestIndex;
+	/** Saves and restores the state learned by TECI */
+	private TeciCheckpoint teciCheckpoint;
 
 	/** Global connection event listeners */
 	private List<ConnectionListener> connectionListeners;
@@ -149,6 +181,8 @@ public class SimScenario implements Serializable {
 	
 	public static void reset() {
 		myinstance = null;
+		DecisionEngineRouter.getWeightToInterestsCopy().clear();
+		DecisionEngineRouter.getImportCopy().clear();
 	}
 
 	/**
@@ -162,10 +196,17 @@ public class SimScenario implements Serializable {
 		this.endTime = s.getDouble(END_TIME_S);
 		this.updateInterval = s.getDouble(UP_INT_S);
 		this.simulateConnections = s.getBoolean(SIM_CON_S);
+		if (s.contains(TECI_WARMUP_S)) {
+			this.teciWarmupTime = s.getDouble(TECI_WARMUP_S);
+		}
+		else {
+			this.teciWarmupTime = 0;
+		}
 
 		ensurePositiveValue(nrofGroups, NROF_GROUPS_S);
 		ensurePositiveValue(endTime, END_TIME_S);
 		ensurePositiveValue(updateInterval, UP_INT_S);
+		ensurePositiveValue(teciWarmupTime, TECI_WARMUP_S);
 
 		this.simMap = null;
 		this.maxHostRange = 1;
@@ -176,6 +217,15 @@ public class SimScenario implements Serializable {
 		this.updateListeners = new ArrayList<UpdateListener>();
 		this.appListeners = new ArrayList<ApplicationListener>();
 		this.eqHandler = new EventQueueHandler();
+		
+		if (s.contains(STOP_SETTLED_S) && s.getBoolean(STOP_SETTLED_S)) {
+			this.settlementTracker = new MessageSettlementTracker();
+			this.messageListeners.add(settlementTracker);
+		}
+		this.eventHorizon = s.contains(EVENT_HORIZON_S) && 
+			s.getBoolean(EVENT_HORIZON_S);
+		this.hierarchicalTopics = s.contains(HIERARCHICAL_TOPICS_S) && 
+			s.getBoolean(HIERARCHICAL_TOPICS_S);
 
 		/* TODO: check size from movement models */
 		s.setNameSpace(MovementModel.MOVEMENT_MODEL_NS);
@@ -188,6 +238,10 @@ public class SimScenario implements Serializable {
 		this.world = new World(hosts, worldSizeX, worldSizeY, updateInterval, 
 				updateListeners, simulateConnections, 
 				eqHandler.getEventQueues());
+		
+		this.teciCheckpoint = new TeciCheckpoint(
+				new Settings(DecisionEngineRouter.PUBSUB_NS));
+		this.teciCheckpoint.scenarioStarted(hosts);
 	}
 	
 	/**
@@ -229,6 +283,75 @@ public class SimScenario implements Serializable {
 		return this.simulateConnections;
 	}
 
+	/**
+	 * Returns true if the simulation is in the contacts-only TECI warm-up
+	 * period, where no message related work should be done
+	 * @return true during the TECI warm-up (false if not)
+	 */
+	public boolean isTeciWarmup() {
+		return SimClock.getTime() < this.teciWarmupTime;
+	}
+
+	/**
+	 * Counts a message that was not created because of the TECI warm-up and
+	 * warns about it the first time
+	 */
+	public void warmupMessageSkipped() {
+		if (this.nrofWarmupSkips++ == 0) {
+			System.err.println("WARNING: messages created before the end " +
+					"of the warm-up (" + SCENARIO_NS + "." + TECI_WARMUP_S + 
+					") are skipped");
+		}
+	}
+
+	/**
+	 * Returns the number of messages not created because of the TECI warm-up
+	 * @return The number of skipped messages
+	 */
+	public int getNrofWarmupSkips() {
+		return this.nrofWarmupSkips;
+	}
+
+	/**
+	 * Returns true if early stopping is enabled and all the messages are 
+	 * settled, i.e. the rest of the simulation can't change the results.
+	 * @return true if the simulation can be ended now
+	 */
+	public boolean isSimulationSettled() {
+		if (this.settlementTracker == null || isTeciWarmup()) {
+			return false;
+		}
+		return this.settlementTracker.isSettled(getExternalEvents());
+	}
+
+	/**
+	 * Returns the time the next world update should run until. Normally this
+	 * is one update interval from now but, if the event horizon is enabled,
+	 * the update intervals before the next possible event are skipped. The 
+	 * returned time is always a whole number of update intervals from now 
+	 * and never beyond the end time of the simulation.
+	 * @return The time of the next update
+	 */
+	public double getNextUpdateTime() {
+		double now = SimClock.getTime();
+		double next = now + this.updateInterval;
+		if (!this.eventHorizon) {
+			return next;
+		}
+
+		double horizon = EventHorizon.getNextEventTime(this.hosts, 
+				getExternalEvents(), this.simulateConnections);
+		if (isTeciWarmup()) {
+			horizon = Math.min(horizon, this.teciWarmupTime);
+		}
+		horizon = Math.min(horizon, this.endTime);
+		if (horizon > next) {
+			next = now + Math.floor((horizon - now) / this.updateInterval) * 
+				this.updateInterval;
+		}
+		return next;
+	}
+
 	/**
 	 * Returns the width of the world
 	 * @return the width of the world
@@ -348,6 +471,7 @@ public class SimScenario implements Serializable {
 	 */
 	protected void createHosts() {
 		this.hosts = new ArrayList<DTNHost>();
+		this.interestIndex = new InterestIndex(hierarchicalTopics);
 
 		for (int i=1; i<=nrofGroups; i++) {
 			List<NetworkInterface> mmNetInterfaces = 
@@ -438,6 +562,7 @@ public class SimScenario implements Serializable {
 						this.movementListeners,	hostInterest, gid, mmNetInterfaces, comBus, 
 						mmProto, mRouterProto);
 				hosts.add(host);
+				interestIndex.addHost(host);
 			}
 		}
 	}
@@ -450,6 +575,22 @@ public class SimScenario implements Serializable {
 		return this.hosts;
 	}
 	
+	/**
+	 * Returns the index of hosts per interest - for SCORP
+	 * @return the interest index
+	 */
+	public InterestIndex getInterestIndex() {
+		return this.interestIndex;
+	}
+	
+	/**
+	 * Returns the handler of TECI checkpoints of this scenario
+	 * @return the checkpoint handler
+	 */
+	public TeciCheckpoint getTeciCheckpoint() {
+		return this.teciCheckpoint;
+	}
+	
 	/**
 	 * Returns the World object of this scenario
 	 * @return the World object
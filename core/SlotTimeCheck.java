@@ -22,56 +22,127 @@
 package core;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
 
 import routing.DecisionEngineRouter;
 
+/**
+ * Manages the slot system used by TECI. The static methods work on the slot
+ * system created last.
+ */
 public class SlotTimeCheck {
 	
+	/** The slot system created last, used by the static methods */
+	private static SlotTimeCheck instance;
 	
-	private static int currentslot;
-	private static ArrayList<Long> slotspecifications;
-	private static int numberofslots;
-	private static long currentslottime;
-	private static long prevtime;
-	private static List<DTNHost> hosts;
-	public static long currentday; // CHANGED FROM: private static long currentday;
-	public static int normalisation;
-	private static long currentslotlength;
+	private int currentslot;
+	private ArrayList<Long> slotspecifications;
+	private int numberofslots;
+	private long currentslottime;
+	private long prevtime;
+	private long currentday; // CHANGED FROM: private static long currentday;
+	private int normalisation;
+	private long currentslotlength;
+	/* the slots of the day are over (they don't cover the whole day): 
+	 * nothing happens until midnight */
+	private boolean daydone;
 	
 	public SlotTimeCheck(ArrayList<Long> slotsettings){
-		currentslot=0;
 		System.out.println("hallo");
 		slotspecifications=slotsettings;
 		numberofslots=slotspecifications.size();
-		currentday=1;
 		if(slotspecifications.size()==0){
 			System.out.print("No slotsettings found!!!");
 			System.exit(0);
 		}
-		currentslottime=slotspecifications.get(0);
-		prevtime=0;
 		normalisation=0;
-		currentslotlength=slotspecifications.get(0);
 		for(int i=1;i<=numberofslots;i++){
 			normalisation=normalisation+i;
 		}
+		restart();
+		instance=this;
+	}
+	
+	private void restart(){
+		daydone=false;
+		currentslot=0;
+		currentday=1;
+		currentslottime=slotspecifications.get(0);
+		prevtime=0;
+		currentslotlength=slotspecifications.get(0);
+	}
+	
+	private static SlotTimeCheck get(){
+		return instance;
+	}
+	
+	/**
+	 * Restarts the slot and day count (in case of 
+	 * running multiple runs)
+	 */
+	public static void reset(){
+		get().restart();
 	}
+	
+	/**
+	 * Continues the slot system from the given day and 
+	 * slot (e.g. when a checkpoint is restored)
+	 * @param day The day to continue from
+	 * @param slot The slot to continue from
+	 */
+	public static void restore(long day, int slot){
+		SlotTimeCheck stc=get();
+		stc.daydone=false;
+		stc.currentday=day;
+		stc.currentslot=slot;
+		stc.currentslottime=stc.slotspecifications.get(slot);
+		if(slot==0){
+			stc.currentslotlength=stc.slotspecifications.get(0);
+		}
+		else{
+			stc.currentslotlength=stc.slotspecifications.get(slot)-stc.slotspecifications.get(slot-1);
+		}
+	}
+	
 	public static int getcurrentslot(){
-		return currentslot;
+		return get().currentslot;
 	}
 	public static int getnumberofslots(){
-		return numberofslots;
+		return get().numberofslots;
 	}
 	
 
 	
 	public static void update(double time){
+		get().updateSlot(time);
+	}
+	
+	/**
+	 * Returns the simulation time when the current slot ends
+	 * @param time Current simulation time
+	 */
+	public static double getNextSlotEnd(double time){
+		SlotTimeCheck stc=get();
+		long dayStart=((long)time)-((long)time)%86400;
+		if(stc.daydone){
+			dayStart+=86400; // the next slot end is on the next day
+		}
+		return dayStart+stc.slotspecifications.get(stc.currentslot);
+	}
+	
+	private void updateSlot(double time){
 		long currentTime=((long)time)%86400;
 	//	System.out.println(""+currentTime+"   "+currentslottime+"   "+prevtime);
-		if((currentTime>=currentslottime||currentTime<prevtime)&currentTime>=0){
-			hosts=SimScenario.getInstance().getHosts();
+		if(daydone&&currentTime<prevtime){
+			/* midnight: the day change was handled with the last slot */
+			daydone=false;
+			prevtime=0;
+		}
+		/* the clock may have skipped several slot ends: handle each of them */
+		while(!daydone&&(currentTime>=currentslottime||currentTime<prevtime)&currentTime>=0){
+			List<DTNHost> hosts=SimScenario.getInstance().getHosts();
 			//System.out.println("\nSimScenario.getInstance().getHosts():" +hosts);
 			ListIterator<DTNHost> iter = hosts.listIterator();
 			System.out.println("Dia: "+currentday+" Slot: "+currentslot);
@@ -80,27 +151,74 @@ public class SlotTimeCheck {
 				//System.out.println("\ncurrenthost in slotTimeCheck: "+currenthost);
 				((DecisionEngineRouter)(currenthost.getRouter())).dailySampleDone();
 			}
+			/* only now the new importances can be seen by the other hosts */
+			for(DTNHost currenthost : hosts){
+				((DecisionEngineRouter)(currenthost.getRouter())).publishImportance();
+			}
 			//System.out.println("\n");
 			currentslot=(currentslot+1)%numberofslots;
 			if(currentslot==0){
 			currentday=currentday+1;	
 			currentslotlength=slotspecifications.get(0);
+			prevtime=0; // the day change is handled
+			SimScenario.getInstance().getTeciCheckpoint().dayStarted(currentday, hosts);
+			if(currentTime>=slotspecifications.get(numberofslots-1)){
+				daydone=true; // the slots don't cover the whole day
+				break;
+			}
 			}
 			else{
 				currentslotlength=slotspecifications.get(currentslot)-slotspecifications.get(currentslot-1);
 			}
+			currentslottime=slotspecifications.get(currentslot);
 		}
 		currentslottime=slotspecifications.get(currentslot);
 		prevtime=currentTime;
 	}
 	public static long getDay(){
-		return currentday;
+		return get().currentday;
 	}
 	public static int getnormalisation(){
-		return normalisation;
+		return get().normalisation;
 	}
 	
 	public static long getcurrentslotlength(){
-		return currentslotlength;
+		return get().currentslotlength;
+	}
+	
+	/**
+	 * Returns the time of day (seconds) when the given slot starts
+	 */
+	public static long getslotstart(int slot){
+		return slot==0 ? 0 : get().slotspecifications.get(slot-1);
+	}
+	
+	/**
+	 * Returns the time of day (seconds) when the given slot ends
+	 */
+	public static long getslotend(int slot){
+		return get().slotspecifications.get(slot);
+	}
+	
+	/**
+	 * Returns the length (seconds) of the given slot
+	 */
+	public static long getslotlength(int slot){
+		return getslotend(slot)-getslotstart(slot);
+	}
+	
+	/**
+	 * Returns the slot the given time of day belongs to, or -1 if it is 
+	 * after the last slot. The slot ends are sorted, so it is found by
+	 * binary search.
+	 * @param timeOfDay Seconds since the start of the day
+	 */
+	public static int getslotat(double timeOfDay){
+		SlotTimeCheck stc=get();
+		int i=Collections.binarySearch(stc.slotspecifications,
+				(long)Math.floor(timeOfDay));
+		/* a time equal to (or just past) a slot end belongs to the next slot */
+		int slot=i>=0 ? i+1 : -(i+1);
+		return slot<stc.numberofslots ? slot : -1;
 	}
 }
@@ -0,0 +1,198 @@
+/**
+ * TopicTrie.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trie of hierarchical topic filters, e.g. <TT>sports/football/local</TT>,
+ * each with a value. Levels are separated by {@value #LEVEL_SEPARATOR} and
+ * filters can use the MQTT wildcards: {@value #SINGLE_LEVEL} matches exactly
+ * one level and {@value #MULTI_LEVEL}, as the last level, matches any number
+ * of levels (also none, so <TT>sports/#</TT> matches <TT>sports</TT>).
+ * Finding the filters that match a topic takes time proportional to the
+ * depth of the topic (times the wildcards met), not to the number of
+ * filters.
+ * @param <V> Type of the values of the filters
+ */
+public class TopicTrie<V> {
+	/** Separator of the levels of a topic ({@value}) */
+	public static final String LEVEL_SEPARATOR = "/";
+	/** Wildcard matching one level ({@value}) */
+	public static final String SINGLE_LEVEL = "+";
+	/** Wildcard matching any number of levels at the end ({@value}) */
+	public static final String MULTI_LEVEL = "#";
+
+	/** The root of the trie */
+	private Node<V> root;
+	/** Number of filters in the trie */
+	private int size;
+
+	/**
+	 * Creates an empty trie.
+	 */
+	public TopicTrie() {
+		this.root = new Node<V>();
+	}
+
+	/**
+	 * Creates a trie of the filters of a map
+	 * @param filters The filters and their values
+	 */
+	public TopicTrie(Map<String, V> filters) {
+		this();
+		for (Map.Entry<String, V> e : filters.entrySet()) {
+			put(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Adds a filter to the trie (or replaces its value)
+	 * @param filter The topic filter
+	 * @param value Value of the filter
+	 */
+	public void put(String filter, V value) {
+		Node<V> node = root;
+		for (String level : filter.split(LEVEL_SEPARATOR, -1)) {
+			Node<V> child = node.children.get(level);
+			if (child == null) {
+				child = new Node<V>();
+				node.children.put(level, child);
+			}
+			node = child;
+		}
+		if (!node.hasValue) {
+			size++;
+		}
+		node.value = value;
+		node.hasValue = true;
+	}
+
+	/**
+	 * Removes a filter from the trie (its levels are kept for reuse)
+	 * @param filter The topic filter
+	 * @return true if the filter was in the trie
+	 */
+	public boolean remove(String filter) {
+		Node<V> node = root;
+		for (String level : filter.split(LEVEL_SEPARATOR, -1)) {
+			node = node.children.get(level);
+			if (node == null) {
+				return false;
+			}
+		}
+		if (!node.hasValue) {
+			return false;
+		}
+		node.value = null;
+		node.hasValue = false;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Returns the values of the filters that match a topic
+	 * @param topic The topic (without wildcards)
+	 * @return The values (an empty list if no filter matches)
+	 */
+	public List<V> match(String topic) {
+		List<V> values = new ArrayList<V>();
+		match(root, topic.split(LEVEL_SEPARATOR, -1), 0, values);
+		return values;
+	}
+
+	/**
+	 * Returns true if any filter of the trie matches a topic
+	 * @param topic The topic (without wildcards)
+	 * @return true if the topic matches
+	 */
+	public boolean matches(String topic) {
+		return !match(topic).isEmpty();
+	}
+
+	/**
+	 * Returns the number of filters in the trie
+	 * @return The number of filters
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void match(Node<V> node, String [] levels, int i, List<V> values) {
+		Node<V> rest = node.children.get(MULTI_LEVEL);
+		if (rest != null && rest.hasValue) {
+			values.add(rest.value);
+		}
+		if (i == levels.length) {
+			if (node.hasValue) {
+				values.add(node.value);
+			}
+			return;
+		}
+		Node<V> child = node.children.get(levels[i]);
+		if (child != null) {
+			match(child, levels, i + 1, values);
+		}
+		child = node.children.get(SINGLE_LEVEL);
+		if (child != null) {
+			match(child, levels, i + 1, values);
+		}
+	}
+
+	/**
+	 * Returns the filters of the ancestors of a topic filter, i.e. the
+	 * literal prefixes of the filter followed by {@value #MULTI_LEVEL}. E.g.
+	 * for <TT>sports/football/local</TT> these are <TT>sports/football/#</TT>
+	 * and <TT>sports/#</TT>.
+	 * @param filter The topic filter
+	 * @return The ancestor filters, the closest first
+	 */
+	public static List<String> getAncestorFilters(String filter) {
+		List<String> ancestors = new ArrayList<String>();
+		String [] levels = filter.split(LEVEL_SEPARATOR, -1);
+		StringBuilder prefix = new StringBuilder();
+		List<String> prefixes = new ArrayList<String>();
+		for (int i = 0; i < levels.length - 1; i++) {
+			if (levels[i].equals(SINGLE_LEVEL) || levels[i].equals(MULTI_LEVEL)) {
+				break;
+			}
+			prefix.append(levels[i]).append(LEVEL_SEPARATOR);
+			prefixes.add(prefix + MULTI_LEVEL);
+		}
+		for (int i = prefixes.size() - 1; i >= 0; i--) {
+			if (!prefixes.get(i).equals(filter)) {
+				ancestors.add(prefixes.get(i));
+			}
+		}
+		return ancestors;
+	}
+
+	/** A level of the trie */
+	private static class Node<V> {
+		private Map<String, Node<V>> children = new HashMap<String, Node<V>>(4);
+		private V value;
+		private boolean hasValue;
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * VisitedHostFilter.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package core;
+
+import java.util.BitSet;
+
+/**
+ * Compact set of the hosts a message has visited, for constant time checks
+ * of the message's path. Host addresses below {@link #EXACT_LIMIT} are kept
+ * exactly in a bitset; larger addresses go to a Bloom filter of fixed size,
+ * so the memory used per message stays bounded in large worlds at the cost
+ * of rare false positives for those hosts.
+ */
+public class VisitedHostFilter {
+	/** Addresses below this are kept exactly */
+	public static final int EXACT_LIMIT = 4096;
+	/** Size of the Bloom filter (bits) */
+	public static final int BLOOM_BITS = 2048;
+	/** Number of hash functions of the Bloom filter */
+	public static final int BLOOM_HASHES = 3;
+
+	/** Visited hosts with small addresses (null if none) */
+	private BitSet exact;
+	/** Bloom filter of the visited hosts with large addresses (null if none) */
+	private BitSet bloom;
+
+	/**
+	 * Creates an empty filter.
+	 */
+	public VisitedHostFilter() {
+	}
+
+	/**
+	 * Creates a copy of a filter
+	 * @param proto The filter to copy
+	 */
+	private VisitedHostFilter(VisitedHostFilter proto) {
+		if (proto.exact != null) {
+			this.exact = (BitSet)proto.exact.clone();
+		}
+		if (proto.bloom != null) {
+			this.bloom = (BitSet)proto.bloom.clone();
+		}
+	}
+
+	/**
+	 * Adds a host to the filter
+	 * @param host The host
+	 */
+	public void add(DTNHost host) {
+		int address = host.getAddress();
+		if (address < EXACT_LIMIT) {
+			if (exact == null) {
+				exact = new BitSet();
+			}
+			exact.set(address);
+			return;
+		}
+		if (bloom == null) {
+			bloom = new BitSet(BLOOM_BITS);
+		}
+		for (int i = 0; i < BLOOM_HASHES; i++) {
+			bloom.set(hash(address, i));
+		}
+	}
+
+	/**
+	 * Returns true if the host has (probably) been added to the filter. For
+	 * hosts with small addresses the answer is always exact.
+	 * @param host The host
+	 * @return true if the host is in the filter
+	 */
+	public boolean contains(DTNHost host) {
+		int address = host.getAddress();
+		if (address < EXACT_LIMIT) {
+			return exact != null && exact.get(address);
+		}
+		if (bloom == null) {
+			return false;
+		}
+		for (int i = 0; i < BLOOM_HASHES; i++) {
+			if (!bloom.get(hash(address, i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a copy of this filter
+	 * @return The copy
+	 */
+	public VisitedHostFilter copy() {
+		return new VisitedHostFilter(this);
+	}
+
+	/**
+	 * Returns the Bloom filter bit of an address for the i:th hash function
+	 * (double hashing)
+	 */
+	private static int hash(int address, int i) {
+		int h1 = address * 0x9E3779B1;
+		int h2 = (address ^ (address >>> 16)) * 0x85EBCA6B | 1;
+		return ((h1 + i * h2) & 0x7FFFFFFF) % BLOOM_BITS;
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * InterestChangeEvent.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package input;
+
+import core.DTNHost;
+import core.World;
+
+/**
+ * External event for adding an interest to a host or removing one from it
+ * (e.g. a user subscribing to or unsubscribing from a topic).
+ */
+public class InterestChangeEvent extends ExternalEvent {
+	private int hostAddr;
+	private String interest;
+	private boolean add;
+
+	/**
+	 * Creates an interest change event
+	 * @param hostAddr Address of the host whose interests change
+	 * @param interest The interest
+	 * @param add True if the interest is added, false if it is removed
+	 * @param time Time, when the interests change
+	 */
+	public InterestChangeEvent(int hostAddr, String interest, boolean add,
+			double time) {
+		super(time);
+		this.hostAddr = hostAddr;
+		this.interest = interest;
+		this.add = add;
+	}
+
+	/**
+	 * Adds the interest to the host or removes it.
+	 */
+	@Override
+	public void processEvent(World world) {
+		DTNHost host = world.getNodeByAddress(this.hostAddr);
+		if (this.add) {
+			host.addInterest(this.interest);
+		}
+		else {
+			host.removeInterest(this.interest);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [" + hostAddr + "] " + 
+			(add ? "+" : "-") + interest + " INTEREST";
+	}
+}
@@ -23,6 +23,7 @@ package input;
 
 import core.DTNHost;
 import core.Message;
+import core.SimScenario;
 import core.World;
 
 /**
@@ -57,6 +58,12 @@ public class MessageCreateEvent extends MessageEvent {
 	 */
 	@Override
 	public void processEvent(World world) {
+		SimScenario scenario = SimScenario.getInstance();
+		if (scenario.isTeciWarmup()) {
+			scenario.warmupMessageSkipped(); // no messages during the warm-up
+			return;
+		}
+		
 		DTNHost to = world.getNodeByAddress(this.toAddr);
 		DTNHost from = world.getNodeByAddress(this.fromAddr);			
 		
@@ -40,18 +40,25 @@ import core.SimError;
  * Syntax:<BR>
  * <TT>
  * &lt;time&gt; &lt;actionId&gt; &lt;msgId&gt; &lt;hostId&gt; 
- * [&lt;host2Id&gt; [&lt;size&gt;] [&lt;respSize&gt;]]
+ * [&lt;host2Id&gt; [&lt;size&gt;] [&lt;respSize&gt;] [&lt;contentTypes&gt;]]
  * </TT>
  * </P><P>
- * All actions (except CONNECTION) must have first four fields. SEND, DELIVERED 
+ * All actions (except CONNECTION and INTEREST) must have first four fields. SEND, DELIVERED 
  * and ABORT actions need host2Id field too (the host who the message is/was 
  * being transferred to). CREATE action needs the additional size 
  * (of the message) field and can have also size-of-the-response field if
- * a response to this message is requested.</P>
+ * a response to this message is requested. The last field of CREATE is the
+ * content type of the message (SCORP); a message of several content types
+ * lists them separated by commas and without spaces 
+ * (e.g. <TT>news,sports</TT>).</P>
  * <P> CONNNECTION action is followed by the two hosts which connect (or 
  * disconnect) to each other and then either "up" or "down" depending on whether
  * the connection was created or destroyed.
  * </P>
+ * <P> INTEREST action is followed by the host whose interests change, then
+ * either "add" or "remove" and the interest (SCORP), e.g. 
+ * <TT>3600 INT n12 add sports</TT>.
+ * </P>
  * <P> Message DROP and REMOVE events can use {@value #ALL_MESSAGES_ID} as the
  * message ID for referring to all messages the node has in message buffer 
  * (i.e., to delete all messages).
@@ -76,6 +83,12 @@ public class StandardEventsReader implements ExternalEventsReader {
 	public static final String CONNECTION_DOWN = "down";
 	/** Value identifier of connection up event ({@value}) */
 	public static final String CONNECTION_UP = "up";
+	/** Identifier of interest change event ({@value}) */
+	public static final String INTEREST = "INT";
+	/** Value identifier of interest added event ({@value}) */
+	public static final String INTEREST_ADD = "add";
+	/** Value identifier of interest removed event ({@value}) */
+	public static final String INTEREST_REMOVE = "remove";
 	/** Message identifier to use to refer to all messages ({@value}) */ 
 	public static final String ALL_MESSAGES_ID = "*";
 	
@@ -155,6 +168,26 @@ public class StandardEventsReader implements ExternalEventsReader {
 					
 					events.add(ce);
 				}
+				else if (action.equals(INTEREST)) {
+					String changeType;
+					boolean isAdd;
+					hostAddr = getHostAddress(lineScan.next());
+					changeType = lineScan.next();
+					
+					if (changeType.equalsIgnoreCase(INTEREST_ADD)) {
+						isAdd = true;
+					}
+					else if (changeType.equalsIgnoreCase(INTEREST_REMOVE)) {
+						isAdd = false;
+					}
+					else {
+						throw new SimError("Unknown add/remove value '" + 
+								changeType + "'");
+					}
+					
+					events.add(new InterestChangeEvent(hostAddr, 
+							lineScan.next(), isAdd, time));
+				}
 				else {
 					msgId = lineScan.next();
 					hostAddr = getHostAddress(lineScan.next());
@@ -0,0 +1,367 @@
+/**
+ * InterestDeliveryReport.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package report;
+
+import java.util.*;
+
+import core.*;
+
+/**
+ * <p>Reports the delivery ratio, first-delivery latency and hop count of
+ * content-based messages per interest and per message.</p>
+ *
+ * <p>When a message is created, the number of deliveries expected for it is
+ * taken from the interest index (hosts interested in the content type,
+ * creator excluded), so the reported delivery ratio can be compared between
+ * protocols directly. A message of several content types counts for each of
+ * them, and a delivery for the ones the recipient is interested in. Latencies and hop counts are streamed into histograms
+ * of fixed size as the deliveries happen.</p>
+ *
+ * <p>The counters of a message are only kept until all its expected
+ * deliveries happened or its TTL expired, then its line is written out and
+ * the counters are dropped. The memory used thus depends on the messages 
+ * alive, not on the length of the simulation. The messages still alive at 
+ * the end are written before the per-interest and total stats.</p>
+ *
+ * @author Waldir Moreira, waldir.junior@ulusofona.pt
+ */
+public class InterestDeliveryReport extends Report implements MessageListener
+{
+	/** Width of a latency histogram bin (seconds) -setting id ({@value}) */
+	public static final String LATENCY_BIN_S = "latencyBinSize";
+	/** Number of latency histogram bins -setting id ({@value}) */
+	public static final String NROF_LATENCY_BINS_S = "nrofLatencyBins";
+	/** Number of hop count histogram bins -setting id ({@value}) */
+	public static final String NROF_HOP_BINS_S = "nrofHopBins";
+
+	/** Default latency bin width (10 minutes) */
+	public static final double DEF_LATENCY_BIN = 600;
+	/** Default number of latency bins (~ 4 days with default width) */
+	public static final int DEF_NROF_LATENCY_BINS = 576;
+	/** Default number of hop count bins */
+	public static final int DEF_NROF_HOP_BINS = 32;
+
+	private double latencyBinSize;
+	private int nrofLatencyBins;
+	private int nrofHopBins;
+
+	/** Counters of the messages still expecting deliveries */
+	private Map<String, MessageStats> messageStats;
+	/** Messages with a finite TTL, by expiry time */
+	private TreeSet<MessageStats> expiries;
+	private Map<String, InterestStats> interestStats;
+	private boolean headerWritten;
+	private int created;
+	private int expected;
+	private int delivered;
+
+	public InterestDeliveryReport()
+	{
+		Settings s = getSettings();
+
+		latencyBinSize = DEF_LATENCY_BIN;
+		nrofLatencyBins = DEF_NROF_LATENCY_BINS;
+		nrofHopBins = DEF_NROF_HOP_BINS;
+
+		if (s.contains(LATENCY_BIN_S))
+			latencyBinSize = s.getDouble(LATENCY_BIN_S);
+		if (s.contains(NROF_LATENCY_BINS_S))
+			nrofLatencyBins = s.getInt(NROF_LATENCY_BINS_S);
+		if (s.contains(NROF_HOP_BINS_S))
+			nrofHopBins = s.getInt(NROF_HOP_BINS_S);
+
+		init();
+	}
+
+	@Override
+	protected void init()
+	{
+		super.init();
+		messageStats = new LinkedHashMap<String, MessageStats>();
+		expiries = new TreeSet<MessageStats>(new Comparator<MessageStats>() {
+			public int compare(MessageStats a, MessageStats b) {
+				int c = Double.compare(a.expiry, b.expiry);
+				return c != 0 ? c : a.id.compareTo(b.id);
+			}
+		});
+		interestStats = new TreeMap<String, InterestStats>();
+		headerWritten = false;
+		created = 0;
+		expected = 0;
+		delivered = 0;
+	}
+
+	public void newMessage(Message m)
+	{
+		if (isWarmup()) {
+			addWarmupID(m.getId());
+			return;
+		}
+
+		forgetExpired();
+
+		InterestIndex index = SimScenario.getInstance().getInterestIndex();
+		MessageStats ms = new MessageStats(m.getId(), m.getContentType(),
+				index.getNrofExpectedRecipients(m));
+		created++;
+		expected += ms.expected;
+		if (ms.expected == 0) {
+			writeMessage(ms);
+		}
+		else {
+			messageStats.put(m.getId(), ms);
+			if (m.getTtl() != Integer.MAX_VALUE) {
+				ms.expiry = m.getCreationTime() + m.getTtl() * 60.0;
+				expiries.add(ms);
+			}
+		}
+
+		/* a message of several content types counts for each of them */
+		for (String type : m.getContentTypes()) {
+			InterestStats is = interestStats.get(type);
+			if (is == null) {
+				is = new InterestStats();
+				interestStats.put(type, is);
+			}
+			is.created++;
+			is.expected += index.getNrofExpectedRecipients(m, type);
+		}
+	}
+
+	public void messageTransferred(Message m, DTNHost from, DTNHost to,
+			boolean firstDelivery)
+	{
+		if (!firstDelivery || isWarmupID(m.getId())) {
+			return;
+		}
+
+		forgetExpired();
+
+		MessageStats ms = messageStats.get(m.getId());
+		if (ms == null) {
+			return; // not created through newMessage, or no longer tracked
+		}
+
+		double latency = getSimTime() - m.getCreationTime();
+		int hops = m.getHopCount();
+
+		ms.delivered++;
+		ms.latencySum += latency;
+		ms.hopSum += hops;
+		delivered++;
+		if (ms.delivered >= ms.expected) {
+			forget(ms);
+		}
+
+		/* the delivery counts for the content types the recipient wants */
+		InterestIndex index = SimScenario.getInstance().getInterestIndex();
+		for (String type : m.getContentTypes()) {
+			InterestStats is = interestStats.get(type);
+			if (is != null && index.isInterested(to, type)) {
+				is.delivered++;
+				is.latencies.add(latency);
+				is.hops.add(hops);
+			}
+		}
+	}
+
+	public void messageTransferStarted(Message m, DTNHost from, DTNHost to) {}
+	public void messageDeleted(Message m, DTNHost where, boolean dropped) {}
+	public void messageTransferAborted(Message m, DTNHost from, DTNHost to) {}
+
+	@Override
+	public void done()
+	{
+		for (MessageStats ms : messageStats.values()) {
+			writeMessage(ms);
+		}
+		messageStats.clear();
+		expiries.clear();
+		writeHeader();
+
+		write("---------\nsim_time: " + format(getSimTime()));
+		write("---------\ninterest\tcreated\texpected\tdelivered\tdelivery_prob" +
+				"\tlatency_avg\tlatency_med\tlatency_p95\thopcount_avg" +
+				"\thopcount_med");
+		for (Map.Entry<String, InterestStats> e : interestStats.entrySet()) {
+			InterestStats is = e.getValue();
+			write(e.getKey() + "\t" + is.created + "\t" + is.expected + "\t" +
+					is.delivered + "\t" + ratio(is.delivered, is.expected) +
+					"\t" + format(is.latencies.getAverage()) +
+					"\t" + format(is.latencies.getPercentile(0.5)) +
+					"\t" + format(is.latencies.getPercentile(0.95)) +
+					"\t" + format(is.hops.getAverage()) +
+					"\t" + format(is.hops.getPercentile(0.5)));
+		}
+
+		write("---------\ncreated: " + created + "\nexpected: " + expected +
+				"\ndelivered: " + delivered +
+				"\ndelivery_prob: " + ratio(delivered, expected));
+		super.done();
+	}
+
+	/**
+	 * Writes out and drops the counters of the messages whose TTL expired
+	 */
+	private void forgetExpired()
+	{
+		double now = getSimTime();
+		while (!expiries.isEmpty() && expiries.first().expiry <= now) {
+			MessageStats ms = expiries.pollFirst();
+			messageStats.remove(ms.id);
+			writeMessage(ms);
+		}
+	}
+
+	/**
+	 * Writes out and drops the counters of a message
+	 */
+	private void forget(MessageStats ms)
+	{
+		messageStats.remove(ms.id);
+		expiries.remove(ms);
+		writeMessage(ms);
+	}
+
+	private void writeHeader()
+	{
+		if (headerWritten) {
+			return;
+		}
+		write("Interest delivery stats for scenario " + getScenarioName());
+		write("---------\nmessage\tinterest\texpected\tdelivered\tdelivery_prob" +
+				"\tlatency_avg\thopcount_avg");
+		headerWritten = true;
+	}
+
+	private void writeMessage(MessageStats ms)
+	{
+		writeHeader();
+		write(ms.id + "\t" + ms.interest + "\t" + ms.expected + "\t" +
+				ms.delivered + "\t" + ratio(ms.delivered, ms.expected) +
+				"\t" + format(average(ms.latencySum, ms.delivered)) +
+				"\t" + format(average(ms.hopSum, ms.delivered)));
+	}
+
+	private String ratio(int delivered, int expected)
+	{
+		if (expected == 0) {
+			return "NaN";
+		}
+		return format((1.0 * delivered) / expected);
+	}
+
+	private double average(double sum, int count)
+	{
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/** Delivery counters of one message */
+	private static class MessageStats
+	{
+		private String id;
+		private String interest;
+		private int expected;
+		private int delivered;
+		private double latencySum;
+		private double hopSum;
+		private double expiry;
+
+		private MessageStats(String id, String interest, int expected)
+		{
+			this.id = id;
+			this.interest = interest;
+			this.expected = expected;
+		}
+	}
+
+	/** Delivery counters and histograms of one interest */
+	private class InterestStats
+	{
+		private int created;
+		private int expected;
+		private int delivered;
+		private Histogram latencies = new Histogram(latencyBinSize,
+				nrofLatencyBins);
+		private Histogram hops = new Histogram(1, nrofHopBins);
+	}
+
+	/**
+	 * Histogram of a fixed number of equally wide bins. Values beyond the last
+	 * bin are counted in an overflow bin so the memory used doesn't depend on
+	 * the number or range of the values added.
+	 */
+	private static class Histogram
+	{
+		private double binSize;
+		private long [] bins;
+		private long overflow;
+		private long count;
+		private double sum;
+		private double max;
+
+		private Histogram(double binSize, int nrofBins)
+		{
+			this.binSize = binSize;
+			this.bins = new long[nrofBins];
+		}
+
+		private void add(double value)
+		{
+			int bin = (int)(value / binSize);
+			if (bin < bins.length) {
+				bins[bin]++;
+			}
+			else {
+				overflow++;
+			}
+			count++;
+			sum += value;
+			max = Math.max(max, value);
+		}
+
+		private double getAverage()
+		{
+			return count == 0 ? Double.NaN : sum / count;
+		}
+
+		/**
+		 * Returns the upper edge of the bin where the given fraction of the
+		 * values is reached (or the largest value for the overflow bin)
+		 */
+		private double getPercentile(double fraction)
+		{
+			if (count == 0) {
+				return Double.NaN;
+			}
+			long target = (long)Math.ceil(fraction * count);
+			long seen = 0;
+			for (int i = 0; i < bins.length; i++) {
+				seen += bins[i];
+				if (seen >= target) {
+					return Math.min((i + 1) * binSize, max);
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * ContactAwareDecisionEngine.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package routing;
+
+import core.*;
+
+/**
+ * Optional interface of a decision engine that can predict how long a
+ * contact lasts and how useful forwarding a message is. With these the
+ * DecisionEngineRouter can choose the messages that fit in the rest of a
+ * contact instead of starting transfers that would be aborted.
+ */
+public interface ContactAwareDecisionEngine
+{
+	/**
+	 * Predicts how long the current contact with a peer still lasts.
+	 *
+	 * @param thisHost The host of this decision engine
+	 * @param peer The connected peer
+	 * @return The predicted remaining contact time (seconds) or a negative
+	 * value if there is nothing to base a prediction on
+	 */
+	public double predictRemainingContactTime(DTNHost thisHost, DTNHost peer);
+
+	/**
+	 * Returns how useful it is to forward a message to a peer. Only the order
+	 * of the values matters: the router prefers the messages with the
+	 * highest utility per byte.
+	 *
+	 * @param m Message to possibly send
+	 * @param thisHost The host of this decision engine
+	 * @param peer Peer to potentially send the message to
+	 * @return The utility (zero or more)
+	 */
+	public double getForwardingUtility(Message m, DTNHost thisHost, DTNHost peer);
+}
@@ -0,0 +1,188 @@
+/**
+ * ContactImportance.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package routing;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import core.DTNHost;
+
+/**
+ * Importance of a host in the contact graph, computed incrementally by the
+ * host itself. The graph is weighted by the contact time of each pair of
+ * hosts, aged at the end of every slot, and importance is the PageRank-like
+ * fixed point of
+ * <PRE>
+ * importance(i) = 0.2 + 0.8 * sum over neighbours j of
+ *                 weight(i,j) * importance(j) / totalWeight(j)
+ * </PRE>
+ * <P>
+ * Instead of solving this over the whole graph, every host does one Jacobi
+ * step per slot from the values its neighbours published at the end of the
+ * previous slot, so the values follow the graph as it changes. A step only
+ * touches the host's own edges and reads nothing written in the same round,
+ * so the hosts can be stepped in any order (or in parallel) before they all
+ * publish.
+ * </P>
+ */
+public class ContactImportance {
+	/** Importance of a host with no contacts */
+	public static final double BASE_IMPORTANCE = 0.2;
+	/** Importance the hosts start from (the average importance) */
+	public static final double INITIAL_IMPORTANCE = 1.0;
+	/** Edges lighter than this (seconds of aged contact time) are dropped */
+	public static final double MIN_EDGE_WEIGHT = 1.0;
+
+	/** Factor the edge weights are multiplied by at the end of each slot */
+	private double decay;
+	/** Aged contact time with each neighbour */
+	private Map<DTNHost, Double> edgeWeights;
+	/** Sum of the edge weights */
+	private double totalWeight;
+	/** Start times of the ongoing contacts (or of their part in this slot) */
+	private Map<DTNHost, Double> contactStarts;
+	/** Contact time with each peer during the current slot */
+	private Map<DTNHost, Double> slotContactTimes;
+	/** Importance computed at the end of the last slot */
+	private double importance;
+	/** Importance per unit of edge weight published to the neighbours */
+	private double share;
+
+	/**
+	 * Creates the importance state of a host with no contacts
+	 * @param decay Aging factor of the edge weights per slot
+	 */
+	public ContactImportance(double decay) {
+		this.decay = decay;
+		this.edgeWeights = new HashMap<DTNHost, Double>();
+		this.contactStarts = new HashMap<DTNHost, Double>();
+		this.slotContactTimes = new HashMap<DTNHost, Double>();
+		this.importance = INITIAL_IMPORTANCE;
+		this.share = 0;
+	}
+
+	/**
+	 * Called when a contact with a peer starts
+	 * @param peer The peer
+	 * @param time Start time of the contact
+	 */
+	public void contactStarted(DTNHost peer, double time) {
+		contactStarts.put(peer, time);
+	}
+
+	/**
+	 * Called when a contact with a peer ends
+	 * @param peer The peer
+	 * @param time End time of the contact
+	 */
+	public void contactEnded(DTNHost peer, double time) {
+		Double start = contactStarts.remove(peer);
+		if (start != null) {
+			addContactTime(peer, time - start);
+		}
+	}
+
+	/**
+	 * Ages the edges, adds the contact time of the slot that ended to them
+	 * and computes the new importance from the shares the neighbours
+	 * published. The new importance is visible to the neighbours only after
+	 * {@link #publish()}.
+	 * @param time Current time (end of the slot)
+	 */
+	public void slotEnded(double time) {
+		/* the ongoing contacts count up to the end of the slot */
+		for (Map.Entry<DTNHost, Double> e : contactStarts.entrySet()) {
+			addContactTime(e.getKey(), time - e.getValue());
+			e.setValue(time);
+		}
+
+		totalWeight = 0;
+		for (Iterator<Map.Entry<DTNHost, Double>> i =
+				edgeWeights.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<DTNHost, Double> e = i.next();
+			Double delta = slotContactTimes.remove(e.getKey());
+			double weight = decay * e.getValue() + (delta == null ? 0 : delta);
+			if (weight < MIN_EDGE_WEIGHT) {
+				i.remove();
+				continue;
+			}
+			e.setValue(weight);
+			totalWeight += weight;
+		}
+		/* the rest are new edges */
+		for (Map.Entry<DTNHost, Double> e : slotContactTimes.entrySet()) {
+			if (e.getValue() >= MIN_EDGE_WEIGHT) {
+				edgeWeights.put(e.getKey(), e.getValue());
+				totalWeight += e.getValue();
+			}
+		}
+		slotContactTimes.clear();
+
+		double sum = 0;
+		for (Map.Entry<DTNHost, Double> e : edgeWeights.entrySet()) {
+			MessageRouter r = e.getKey().getRouter();
+			if (r instanceof DecisionEngineRouter) {
+				ContactImportance other =
+					((DecisionEngineRouter)r).getContactImportance();
+				if (other != null) {
+					sum += e.getValue() * other.share;
+				}
+			}
+		}
+		importance = BASE_IMPORTANCE + (1 - BASE_IMPORTANCE) * sum;
+	}
+
+	/**
+	 * Makes the importance computed by the last {@link #slotEnded(double)}
+	 * visible to the neighbours
+	 * @return The importance
+	 */
+	public double publish() {
+		share = totalWeight > 0 ? importance / totalWeight : 0;
+		return importance;
+	}
+
+	/**
+	 * Returns the importance computed at the end of the last slot
+	 * @return The importance
+	 */
+	public double getImportance() {
+		return importance;
+	}
+
+	/**
+	 * Returns the number of neighbours in the contact graph
+	 * @return The number of edges of this host
+	 */
+	public int getNrofNeighbours() {
+		return edgeWeights.size();
+	}
+
+	private void addContactTime(DTNHost peer, double time) {
+		if (time <= 0) {
+			return;
+		}
+		Double old = slotContactTimes.get(peer);
+		slotContactTimes.put(peer, old == null ? time : old + time);
+	}
+}
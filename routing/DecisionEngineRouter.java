@@ -144,11 +144,15 @@ public class DecisionEngineRouter extends ActiveRouter
 //	public static FileWriter results2;
 	
 	/** SCORP */
-	public static Map<String, Double> weightToInterests;
-	public static Map<DTNHost, Map<String, Double>> weightToInterestsCopy= new HashMap<DTNHost, Map<String, Double>>();
+	protected Map<String, Double> weightToInterests;
+	private static Map<DTNHost, Map<String, Double>> weightToInterestsCopy = 
+		new HashMap<DTNHost, Map<String, Double>>();
+	private static Map<DTNHost, Double> importCopy = 
+		new HashMap<DTNHost, Double>();
 	
-	public static Map<DTNHost, Double> importCopy= new HashMap<DTNHost, Double>();
-	public static DecisionEngineRouter host;
+	/** Prefix sums over the slots of a day of the average connected time to
+	 * each interest (computed when needed, cleared when the averages change) */
+	private Map<String, double[]> connectedTimePrefixSums = new HashMap<String, double[]>();
 
 	int predCount=0;
     /////////////ADDED
@@ -157,6 +161,117 @@ public class DecisionEngineRouter extends ActiveRouter
 	public static final String ENGINE_SETTING = "decisionEngine";
 	public static final String TOMBSTONE_SETTING = "tombstones";
 	public static final String CONNECTION_STATE_SETTING = "";
+	/** Update only routers with work to do -setting id ({@value}). If true,
+	 * a router is left out of the updates until a connection event, a new 
+	 * or received message, the end of a transfer or a notification from a 
+	 * peer that is ready to receive again wakes it up (or a TTL check is 
+	 * due). */
+	public static final String ACTIVE_SET_SETTING = "activeSetScheduling";
+	/** Largest size of a bundle (bytes) -setting id ({@value}). If set, the
+	 * messages queued for the same connection are packed into one transfer 
+	 * of at most this size. Messages larger than this are sent alone. */
+	public static final String BUNDLE_SIZE_SETTING = "bundleSize";
+	
+	/** Start transfers back-to-back -setting id ({@value}). If true, the 
+	 * next queued message of a connection is started at the time the 
+	 * previous transfer ended instead of at the next update. */
+	public static final String PIPELINE_SETTING = "pipelineTransfers";
+	/** Resume aborted transfers -setting id ({@value}). If true, the bytes
+	 * received of an aborted message are kept (as long as they fit in the
+	 * free buffer space and the message is alive) and a later transfer of 
+	 * the same message, from any host, continues from that byte offset. */
+	public static final String PARTIAL_SETTING = "partialTransfers";
+	
+	/** Choose the messages that fit in the contact -setting id ({@value}).
+	 * If true and the decision engine is a {@link ContactAwareDecisionEngine},
+	 * only the queued messages that fit in the predicted rest of a contact 
+	 * are tried, the most useful per byte first. */
+	public static final String CONTACT_AWARE_SETTING = "contactAwareScheduling";
+	
+	/** Share the connections fairly between content types -setting id 
+	 * ({@value}). If true, the queued messages of each connection are sent 
+	 * in weighted fair queuing order across their content types. */
+	public static final String FAIR_QUEUE_SETTING = "fairQueue";
+	/** Fair queuing weights -setting id ({@value}). Comma separated 
+	 * interest:weight pairs, e.g. "news:2, sports:1". */
+	public static final String FAIR_WEIGHTS_SETTING = "fairQueueWeights";
+	/** Fair queuing weights by population -setting id ({@value}). If true,
+	 * the weight of an interest without a configured weight is the square 
+	 * root of the number of hosts interested in it (otherwise it is 1): 
+	 * popular interests get more of the link, but less than in proportion to
+	 * their audience, so the rare ones aren't crowded out. */
+	public static final String FAIR_POPULATION_SETTING = "fairQueueByPopulation";
+	
+	/** Purge messages that reached their recipients -setting id ({@value}).
+	 * If true, routers exchange the sets of hosts each message was delivered
+	 * to on contact and drop the messages delivered to enough of the 
+	 * interested hosts. */
+	public static final String VACCINE_SETTING = "vaccine";
+	/** Fraction of the interested hosts that must have received a message 
+	 * before it's purged -setting id ({@value}). Default 1.0. */
+	public static final String VACCINE_FRACTION_SETTING = "vaccineFraction";
+	
+	/** Flap debouncing window (seconds) -setting id ({@value}). If set, a
+	 * connection that goes down and comes back up within this time is 
+	 * considered continuous by the TECI accounting, the decision engine and
+	 * the information exchange. Transfers still follow the real link. */
+	public static final String FLAP_WINDOW_SETTING = "flapWindow";
+	
+	/** Compute the importance of the hosts -setting id ({@value}). If true,
+	 * every router keeps its edges of the contact graph and updates its 
+	 * importance at the end of each slot (see {@link ContactImportance}).
+	 * The importances are published like the social weights. */
+	public static final String IMPORTANCE_SETTING = "importance";
+	/** Aging factor of the contact graph edges per slot -setting id 
+	 * ({@value}). Default 0.9. */
+	public static final String IMPORTANCE_DECAY_SETTING = "importanceDecay";
+	
+	/** Exchange the social weights on contact -setting id ({@value}). If 
+	 * true, routers learn the weights of their peers only from control 
+	 * messages sent over the connections (carrying the entries changed since
+	 * the last update the peer received) instead of reading the weights 
+	 * published by all hosts. */
+	public static final String DISTRIBUTED_WEIGHTS_SETTING = "distributedWeights";
+	
+	/** Aggregate the connected time up the topic hierarchy -setting id 
+	 * ({@value}). If true, the time connected to a host interested in a 
+	 * topic also counts for the ancestors of the topic (e.g. sports/# for
+	 * sports/football), so the social weights cover whole subtrees. Meant
+	 * for hierarchical topics (see {@link core.TopicTrie}). */
+	public static final String AGGREGATE_TOPICS_SETTING = "aggregateTopics";
+	
+	/** Number of interests tracked per slot -setting id ({@value}). If set,
+	 * each slot keeps the average connected time of at most this many 
+	 * interests, the ones with the most time (Space-Saving), and the upper
+	 * bound of the others under {@link #UNTRACKED_INTEREST}. Default 0 (all
+	 * interests are tracked). */
+	public static final String TOP_K_SETTING = "topK";
+	/** Use the upper bound for the interests not tracked -setting id 
+	 * ({@value}). If true, the weight (and expected connected time) of an
+	 * interest a host doesn't track is the bound kept for the untracked 
+	 * ones instead of zero. Default false. */
+	public static final String UNTRACKED_BOUND_SETTING = "untrackedBound";
+	/** Reserved interest holding the upper bound of the connected time and
+	 * weight of the interests not tracked with {@link #TOP_K_SETTING} */
+	public static final String UNTRACKED_INTEREST = "*";
+	
+	/** Message property holding the messages packed in a bundle */
+	public static final String BUNDLE_PROP = "DecisionEngineRouter.bundle";
+	/** Message property holding the ids of the bundled messages accepted by 
+	 * the receiver */
+	public static final String BUNDLE_ACCEPTED_PROP = 
+		"DecisionEngineRouter.bundleAccepted";
+	/** Prefix of the bundle message ids */
+	public static final String BUNDLE_ID_PREFIX = "bundle:";
+	/** Message property holding the weight entries of a weight update 
+	 * (removed entries have a null weight) */
+	public static final String WEIGHTS_PROP = "DecisionEngineRouter.weights";
+	/** Prefix of the weight update message ids */
+	public static final String WEIGHTS_ID_PREFIX = "weights:";
+	/** Size of the header of a weight update (bytes) */
+	public static final int WEIGHTS_HEADER_SIZE = 16;
+	/** Size of the weight of an entry of a weight update (bytes) */
+	public static final int WEIGHT_SIZE = 8;
 	
 	protected boolean tombstoning;
 	protected RoutingDecisionEngine decider;
@@ -175,6 +290,92 @@ public class DecisionEngineRouter extends ActiveRouter
 	 */
 	protected Map<Connection, Integer> conStates;
 	
+	/** Should the router be updated only when it has work to do */
+	protected boolean activeSetScheduling;
+	/** Does the router have (possibly) work to do on the next update */
+	private boolean awake;
+	
+	/** Largest size of a bundle (0 if bundling is not used) */
+	protected int bundleSize;
+	/** Counter for the ids of the bundles created by this router */
+	private int nextBundleId;
+	/** Ids of the accepted messages of the incoming bundles, keyed like 
+	 * the incoming buffer (bundle id + "_" + sender) */
+	private Map<String, List<String>> incomingBundles;
+	
+	/** Should transfers be started back-to-back */
+	protected boolean pipelineTransfers;
+	/** Should the messages be chosen by the predicted contact time */
+	protected boolean contactAwareScheduling;
+	/** Flap debouncing window (0 if not used) */
+	protected double flapWindow;
+	/** Times the connections to the peers went down, for the connections 
+	 * whose down isn't accounted yet */
+	private Map<DTNHost, Double> pendingDowns;
+	/** Aging factor of the contact graph edges (0 if importance isn't 
+	 * computed) */
+	protected double importanceDecay;
+	/** Importance state of this host (null if importance isn't computed) */
+	private ContactImportance contactImportance;
+	/** Is the connected time aggregated up the topic hierarchy */
+	protected boolean aggregateTopics;
+	/** Number of interests tracked per slot (0 for all of them) */
+	protected int topK;
+	/** Do the interests not tracked get the upper bound (or zero) */
+	protected boolean untrackedBound;
+	/** Are the social weights exchanged on contact */
+	protected boolean distributedWeights;
+	/** Own weights and the weights received from the peers */
+	private Map<DTNHost, Map<String, Double>> knownWeights;
+	/** Weights each peer is known to have received from this host */
+	private Map<DTNHost, Map<String, Double>> sentWeights;
+	/** Weight updates waiting to be sent, per connection */
+	private Map<Connection, Message> pendingWeights;
+	/** Weight entries of the incoming weight updates, keyed like the 
+	 * incoming buffer (update id + "_" + sender) */
+	private Map<String, Map<String, Double>> incomingWeights;
+	/** Counter for the ids of the weight updates created by this router */
+	private int nextWeightsId;
+	/** Bytes of weight updates sent by this router */
+	private long controlBytesSent;
+	/** Should delivered messages be purged */
+	protected boolean vaccine;
+	/** Fraction of the interested hosts needed to purge a message */
+	protected double vaccineFraction;
+	/** Addresses of the hosts known to have received each message */
+	private Map<String, BitSet> deliveredTo;
+	/** Times when the messages of deliveredTo expire (and are forgotten) */
+	private Map<String, Double> deliveredExpiries;
+	/** Should the connections be shared fairly between content types */
+	protected boolean fairQueue;
+	/** Configured fair queuing weights per interest */
+	protected Map<String, Double> fairWeights;
+	/** Should the fair queuing weights default to the interest population */
+	protected boolean fairByPopulation;
+	/** Fair queuing state of each connection */
+	private Map<Connection, FairQueueState> fairStates;
+	/** Should aborted transfers be resumed */
+	protected boolean partialTransfers;
+	/** Partially received messages by message id, the oldest first */
+	private LinkedHashMap<String, PartialTransfer> partials;
+	/** Bytes held by the partially received messages */
+	private int partialBytes;
+	/** Offsets of the incoming transfers that were resumed, keyed like the 
+	 * incoming buffer (message id + "_" + sender) */
+	private Map<String, Integer> resumeOffsets;
+	/** Times when the ongoing transfers end (with pipelining or resuming) */
+	private Map<Connection, Double> transferEnds;
+	/** Start (as pipelined) and resume offset of the ongoing transfers that
+	 * can be resumed: the bytes sent are counted from these, not from the
+	 * connection, which only knows the real start of the full message */
+	private Map<Connection, OutgoingTransfer> outgoingTransfers;
+	/** Bytes the receivers have of the transfers aborted by this host, by
+	 * message id + "_" + receiver, until the receivers take them */
+	private Map<String, Integer> abortedBytes;
+	/** Time the next started transfer is considered to start at (with 
+	 * pipelining) or -1 for the current time */
+	private double transferStart = -1;
+	
 	
 	
 	public DecisionEngineRouter(Settings s)
@@ -193,6 +394,124 @@ public class DecisionEngineRouter extends ActiveRouter
 		else
 			tombstoning = false;
 		
+		if(routeSettings.contains(ACTIVE_SET_SETTING))
+			activeSetScheduling = routeSettings.getBoolean(ACTIVE_SET_SETTING);
+		else
+			activeSetScheduling = false;
+		awake = true;
+		
+		if(routeSettings.contains(BUNDLE_SIZE_SETTING))
+			bundleSize = routeSettings.getInt(BUNDLE_SIZE_SETTING);
+		else
+			bundleSize = 0;
+		incomingBundles = new HashMap<String, List<String>>();
+		
+		if(routeSettings.contains(PIPELINE_SETTING))
+			pipelineTransfers = routeSettings.getBoolean(PIPELINE_SETTING);
+		else
+			pipelineTransfers = false;
+		transferEnds = new HashMap<Connection, Double>();
+		
+		if(routeSettings.contains(PARTIAL_SETTING))
+			partialTransfers = routeSettings.getBoolean(PARTIAL_SETTING);
+		else
+			partialTransfers = false;
+		partials = new LinkedHashMap<String, PartialTransfer>();
+		resumeOffsets = new HashMap<String, Integer>();
+		outgoingTransfers = new HashMap<Connection, OutgoingTransfer>();
+		abortedBytes = new HashMap<String, Integer>();
+		
+		if(routeSettings.contains(FLAP_WINDOW_SETTING))
+			flapWindow = routeSettings.getDouble(FLAP_WINDOW_SETTING);
+		else
+			flapWindow = 0;
+		pendingDowns = new HashMap<DTNHost, Double>();
+		
+		importanceDecay = 0;
+		if(routeSettings.contains(IMPORTANCE_SETTING) && 
+				routeSettings.getBoolean(IMPORTANCE_SETTING))
+		{
+			if(routeSettings.contains(IMPORTANCE_DECAY_SETTING))
+				importanceDecay = routeSettings.getDouble(IMPORTANCE_DECAY_SETTING);
+			else
+				importanceDecay = 0.9;
+			if(importanceDecay <= 0 || importanceDecay > 1)
+				throw new SettingsError("Invalid " + IMPORTANCE_DECAY_SETTING + 
+						" " + importanceDecay + " (must be in (0, 1])");
+			contactImportance = new ContactImportance(importanceDecay);
+		}
+		
+		if(routeSettings.contains(AGGREGATE_TOPICS_SETTING))
+			aggregateTopics = routeSettings.getBoolean(AGGREGATE_TOPICS_SETTING);
+		else
+			aggregateTopics = false;
+		
+		if(routeSettings.contains(TOP_K_SETTING))
+			topK = routeSettings.getInt(TOP_K_SETTING);
+		else
+			topK = 0;
+		if(topK < 0)
+			throw new SettingsError("Invalid " + TOP_K_SETTING + " " + topK + 
+					" (must be >= 0)");
+		if(routeSettings.contains(UNTRACKED_BOUND_SETTING))
+			untrackedBound = routeSettings.getBoolean(UNTRACKED_BOUND_SETTING);
+		else
+			untrackedBound = false;
+		
+		if(routeSettings.contains(DISTRIBUTED_WEIGHTS_SETTING))
+			distributedWeights = routeSettings.getBoolean(DISTRIBUTED_WEIGHTS_SETTING);
+		else
+			distributedWeights = false;
+		initWeightExchange();
+		
+		if(routeSettings.contains(VACCINE_SETTING))
+			vaccine = routeSettings.getBoolean(VACCINE_SETTING);
+		else
+			vaccine = false;
+		if(routeSettings.contains(VACCINE_FRACTION_SETTING))
+			vaccineFraction = routeSettings.getDouble(VACCINE_FRACTION_SETTING);
+		else
+			vaccineFraction = 1.0;
+		if(vaccineFraction <= 0 || vaccineFraction > 1)
+			throw new SettingsError("Invalid " + VACCINE_FRACTION_SETTING + 
+					" " + vaccineFraction + " (must be in (0, 1])");
+		deliveredTo = new HashMap<String, BitSet>();
+		deliveredExpiries = new HashMap<String, Double>();
+		
+		if(routeSettings.contains(FAIR_QUEUE_SETTING))
+			fairQueue = routeSettings.getBoolean(FAIR_QUEUE_SETTING);
+		else
+			fairQueue = false;
+		fairWeights = new HashMap<String, Double>();
+		if(routeSettings.contains(FAIR_WEIGHTS_SETTING))
+		{
+			for(String pair : routeSettings.getCsvSetting(FAIR_WEIGHTS_SETTING))
+			{
+				String [] parts = pair.trim().split(":");
+				double weight;
+				try {
+					weight = Double.parseDouble(parts[parts.length - 1]);
+				} catch (NumberFormatException e) {
+					weight = -1;
+				}
+				if(parts.length != 2 || weight <= 0)
+					throw new SettingsError("Invalid fair queuing weight '" + 
+							pair + "' in " + FAIR_WEIGHTS_SETTING);
+				fairWeights.put(parts[0].trim(), weight);
+			}
+		}
+		if(routeSettings.contains(FAIR_POPULATION_SETTING))
+			fairByPopulation = routeSettings.getBoolean(FAIR_POPULATION_SETTING);
+		else
+			fairByPopulation = false;
+		fairStates = new HashMap<Connection, FairQueueState>();
+		
+		if(routeSettings.contains(CONTACT_AWARE_SETTING))
+			contactAwareScheduling = routeSettings.getBoolean(CONTACT_AWARE_SETTING) &&
+				decider instanceof ContactAwareDecisionEngine;
+		else
+			contactAwareScheduling = false;
+		
 		if(tombstoning)
 			tombstones = new HashSet<String>(10);
 		conStates = new HashMap<Connection, Integer>(4);
@@ -225,6 +544,36 @@ public class DecisionEngineRouter extends ActiveRouter
 		outgoingMessages = new LinkedList<Tuple<Message, Connection>>();
 		decider = r.decider.replicate();
 		tombstoning = r.tombstoning;
+		activeSetScheduling = r.activeSetScheduling;
+		awake = true;
+		bundleSize = r.bundleSize;
+		incomingBundles = new HashMap<String, List<String>>();
+		pipelineTransfers = r.pipelineTransfers;
+		transferEnds = new HashMap<Connection, Double>();
+		partialTransfers = r.partialTransfers;
+		partials = new LinkedHashMap<String, PartialTransfer>();
+		resumeOffsets = new HashMap<String, Integer>();
+		outgoingTransfers = new HashMap<Connection, OutgoingTransfer>();
+		abortedBytes = new HashMap<String, Integer>();
+		contactAwareScheduling = r.contactAwareScheduling;
+		flapWindow = r.flapWindow;
+		pendingDowns = new HashMap<DTNHost, Double>();
+		importanceDecay = r.importanceDecay;
+		if(importanceDecay > 0)
+			contactImportance = new ContactImportance(importanceDecay);
+		aggregateTopics = r.aggregateTopics;
+		topK = r.topK;
+		untrackedBound = r.untrackedBound;
+		distributedWeights = r.distributedWeights;
+		initWeightExchange();
+		vaccine = r.vaccine;
+		vaccineFraction = r.vaccineFraction;
+		deliveredTo = new HashMap<String, BitSet>();
+		deliveredExpiries = new HashMap<String, Double>();
+		fairQueue = r.fairQueue;
+		fairWeights = r.fairWeights;
+		fairByPopulation = r.fairByPopulation;
+		fairStates = new HashMap<Connection, FairQueueState>();
 		
 		if(this.tombstoning)
 			tombstones = new HashSet<String>(10);
@@ -266,6 +615,7 @@ public class DecisionEngineRouter extends ActiveRouter
 			m.setTtl(this.msgTtl);
 			addToMessages(m, true); 
 			findConnectionsForNewMessage(m, getHost());
+			wakeUp();
 			return true;
 		}
 		return false;
@@ -299,17 +649,26 @@ public class DecisionEngineRouter extends ActiveRouter
 		DTNHost otherNode = con.getOtherNode(myHost);
 		DecisionEngineRouter otherRouter = (DecisionEngineRouter)otherNode.getRouter();
 		
+		wakeUp();
+		if(flapWindow > 0)
+			finishPendingDowns(false);
+		
 		if(con.isUp())
 		{
+			/* back within the flap window: the contact continues */
+			boolean flapped = pendingDowns.remove(otherNode) != null;
+			
 			////System.out.println("\nConn Up: " + myHost + " -> " + otherNode);
 			///////////
-			keepTrackConnectionStartTime(otherNode);    //new function
+			if(!flapped)
+				keepTrackConnectionStartTime(otherNode);    //new function
 		    /** SEE IF APPLICABLE TO SCORP 
 		     * updateImportancemap(otherNode);
 		     */
 			///////////
 			//System.out.println("vamos entrar em decider.connectionUp(myHost, otherNode)");
-			decider.connectionUp(myHost, otherNode);
+			if(!flapped)
+				decider.connectionUp(myHost, otherNode);
 			
 			/*
 			 * This part is a little confusing because there's a problem we have to
@@ -330,12 +689,22 @@ public class DecisionEngineRouter extends ActiveRouter
 			 * will update the information on both peers simultaneously using the old
 			 * information from both peers.
 			 */
-			if(shouldNotifyPeer(con))
+			if(flapped)
+			{
+				conStates.put(con, 1); // the information was already exchanged
+			}
+			else if(shouldNotifyPeer(con))
 			{
 				this.doExchange(con, otherNode);
 				otherRouter.didExchange(con);
 			}
 			
+			/*
+			 * During the contacts-only warm-up there are no messages to consider.
+			 */
+			if(SimScenario.getInstance().isTeciWarmup())
+				return;
+			
 			/*
 			 * Once we have new information computed for the peer, we figure out if
 			 * there are any messages that should get sent to this peer.
@@ -351,15 +720,26 @@ public class DecisionEngineRouter extends ActiveRouter
 		else /////////// RETIRAR if(con.isUp())
 		{
 			//System.out.println("\nConn Down: " + myHost + " -> " + otherNode);
-			/////////////
-			computeConnectedTime(otherNode);
-			/** SEE LATER
-			 *  setstarttimeoff(otherNode);
-			 */
-			/////////////
-			decider.connectionDown(myHost, otherNode);
+			if(flapWindow > 0)
+			{
+				/* accounted when the window is over without a reconnection */
+				pendingDowns.put(otherNode, SimClock.getTime());
+			}
+			else
+			{
+				/////////////
+				computeConnectedTime(otherNode, SimClock.getTime());
+				/** SEE LATER
+				 *  setstarttimeoff(otherNode);
+				 */
+				/////////////
+				decider.connectionDown(myHost, otherNode);
+			}
 			
 			conStates.remove(con);
+			transferEnds.remove(con);
+			fairStates.remove(con);
+			pendingWeights.remove(con);
 			
 			/*
 			 * If we  were trying to send message to this peer, we need to remove them
@@ -380,7 +760,7 @@ public class DecisionEngineRouter extends ActiveRouter
 	 *  different interests of users **/
 	private void keepTrackConnectionStartTime(DTNHost encounteredHost) {
 		List<String> interestEncHost = new ArrayList<String>();
-		interestEncHost=encounteredHost.getInterests();
+		interestEncHost=getTrackedInterests(encounteredHost);
 		Map<String,Double> interestSet = new HashMap<String,Double>();
 		//System.out.println("this host: " + this.getHost());
 		//System.out.println("encounteredHost: "+encounteredHost);
@@ -403,6 +783,85 @@ public class DecisionEngineRouter extends ActiveRouter
 		//System.out.println("startconnectiontime of this host: "+ interestSet);
 		timeEncounterWithInterests.put(encounteredHost, interestSet);
 		//System.out.println("timeEncounterWithInterests: " + timeEncounterWithInterests);
+		if(contactImportance != null)
+			contactImportance.contactStarted(encounteredHost, SimClock.getTime());
+	}
+	
+	/** Returns the interests the time connected to a host counts for: its
+	 *  interests and, when aggregating topics, their ancestor topics **/
+	private List<String> getTrackedInterests(DTNHost host) {
+		if(!aggregateTopics)
+			return host.getInterests();
+		List<String> interests = new ArrayList<String>(host.getInterests());
+		for(String interest : host.getInterests()){
+			for(String ancestor : TopicTrie.getAncestorFilters(interest)){
+				if(!interests.contains(ancestor))
+					interests.add(ancestor);
+			}
+		}
+		return interests;
+	}
+	
+	/**
+	 * Called when the interests of a connected peer change. The time with
+	 * the interests the peer left is accounted up to now, the time with the
+	 * ones it joined starts now, and the messages queued for the peer are
+	 * decided again (only the ones for this peer).
+	 * @param con The connection to the peer
+	 */
+	@Override
+	public void peerInterestsChanged(Connection con)
+	{
+		DTNHost peer = con.getOtherNode(getHost());
+		Map<String, Double> startTimes = timeEncounterWithInterests.get(peer);
+		if(startTimes == null || pendingDowns.containsKey(peer))
+			return; // the contact isn't tracked (yet)
+		
+		double now = SimClock.getTime();
+		List<String> tracked = getTrackedInterests(peer);
+		for(Iterator<Map.Entry<String, Double>> i = startTimes.entrySet().iterator(); i.hasNext();)
+		{
+			Map.Entry<String, Double> e = i.next();
+			if(tracked.contains(e.getKey()))
+				continue;
+			Double old = connectedTimeToInterests.get(e.getKey());
+			connectedTimeToInterests.put(e.getKey(), (old == null ? 0 : old) + now - e.getValue());
+			i.remove();
+		}
+		for(String interest : tracked)
+		{
+			if(!startTimes.containsKey(interest))
+				startTimes.put(interest, now);
+		}
+		
+		if(!conStates.containsKey(con) || SimScenario.getInstance().isTeciWarmup())
+			return;
+		
+		Set<String> queued = new HashSet<String>();
+		for(Tuple<Message, Connection> t : outgoingMessages)
+		{
+			if(t.getValue() == con)
+				queued.add(t.getKey().getId());
+		}
+		Set<String> unqueued = new HashSet<String>();
+		for(Message m : getMessageCollection())
+		{
+			boolean send = decider.shouldSendMessageToHost(m, getHost(), peer);
+			if(send && !queued.contains(m.getId()))
+				outgoingMessages.add(new Tuple<Message,Connection>(m, con));
+			else if(!send && queued.contains(m.getId()))
+				unqueued.add(m.getId());
+		}
+		if(!unqueued.isEmpty())
+		{
+			for(Iterator<Tuple<Message, Connection>> i = outgoingMessages.iterator(); i.hasNext();)
+			{
+				Tuple<Message, Connection> t = i.next();
+				if(t.getValue() == con && unqueued.contains(t.getKey().getId()))
+					i.remove();
+			}
+		}
+		wakeUp();
 	}
 	
 	/** SEE IF APPLICABLE TO SCORP 
@@ -414,11 +873,13 @@ public class DecisionEngineRouter extends ActiveRouter
 	
 	/** Compute the time this host has spent with 
 	 *  the different interests of users **/
-	private void computeConnectedTime(DTNHost encounteredHost){
+	private void computeConnectedTime(DTNHost encounteredHost, double endTime){
 		Map<String, Double> encHostInterests = new HashMap<String,Double>();
 		encHostInterests = timeEncounterWithInterests.get(encounteredHost);
 		Set<String> deltaHostToUp= encHostInterests.keySet();
 		Iterator<String> deltaIterator=deltaHostToUp.iterator();		
+		if(contactImportance != null)
+			contactImportance.contactEnded(encounteredHost, endTime);
 		
 		//System.out.println("this host: " + this.getHost());
 		//System.out.println("this Host connections: "+ this.getConnections());
@@ -433,12 +894,12 @@ public class DecisionEngineRouter extends ActiveRouter
 		if(!connectedTimeToInterests.containsKey(currentInterest))
 		{
 			//System.out.println("currentInterest: "+ currentInterest +" not in delta.");
-			connectedTimeToInterests.put(currentInterest, SimClock.getTime()-encHostInterests.get(currentInterest));
+			connectedTimeToInterests.put(currentInterest, endTime-encHostInterests.get(currentInterest));
 		}
 		else
 		{
 			//System.out.println("currentInterest: "+ currentInterest +" already in delta.");
-			connectedTimeToInterests.put(currentInterest, connectedTimeToInterests.get(currentInterest)+(SimClock.getTime()-encHostInterests.get(currentInterest)));
+			connectedTimeToInterests.put(currentInterest, connectedTimeToInterests.get(currentInterest)+(endTime-encHostInterests.get(currentInterest)));
 		}
 	}
 	
@@ -474,6 +935,23 @@ public class DecisionEngineRouter extends ActiveRouter
 		
 	}
 	
+	/**
+	 * Accounts the connections that went down and didn't come back up within
+	 * the flap window
+	 * @param all Account all of them, also the ones still in the window
+	 */
+	private void finishPendingDowns(boolean all){
+		double now = SimClock.getTime();
+		for(Iterator<Map.Entry<DTNHost, Double>> i = pendingDowns.entrySet().iterator(); i.hasNext();){
+			Map.Entry<DTNHost, Double> e = i.next();
+			if(all || now - e.getValue() >= flapWindow){
+				i.remove();
+				computeConnectedTime(e.getKey(), e.getValue());
+				decider.connectionDown(getHost(), e.getKey());
+			}
+		}
+	}
+	
 	/** SEE LATER
 	private void setstarttimeoff(DTNHost host){
 		startconnectiontime.put(host,-1.0);
@@ -482,6 +960,7 @@ public class DecisionEngineRouter extends ActiveRouter
 	
 	/** Called after each daily sample **/
 	public void dailySampleDone(){
+		finishPendingDowns(true); // the slot is over
 		/** SCORP */
 		//System.out.println("timeEncounterWithInterests: "+timeEncounterWithInterests);
 		//System.out.println("deltaT in calcdeltaTandAD: " + connectedTimeToInterests);
@@ -526,7 +1005,7 @@ public class DecisionEngineRouter extends ActiveRouter
 			}
 			//System.out.println("Updated deltaT by calcdeltaTandAD(): "+connectedTimeToInterests);
 			
-			Iterator<String> ToUpIterator = connTo.getInterests().iterator();
+			Iterator<String> ToUpIterator = getTrackedInterests(connTo).iterator();
 			
 			while(ToUpIterator.hasNext()){            
 				String currentInterest = ToUpIterator.next();
@@ -561,17 +1040,27 @@ public class DecisionEngineRouter extends ActiveRouter
 		/**Clear for next daily sample**/
 		connectedTimeToInterests.clear();
 		
-		/** SEE LATER 
-		 * updateImportance();
-		 * */
+		if(contactImportance != null)
+			contactImportance.slotEnded(SimClock.getTime());
 		
-		weightToInterestsCopy.put(this.getHost(),weightToInterests);
+		getWeightToInterestsCopy().put(this.getHost(),weightToInterests);
+		if(distributedWeights)
+		{
+			knownWeights.put(this.getHost(), weightToInterests);
+			/* keep the connected peers up to date */
+			for(Connection c : this.getHost().getConnections())
+			{
+				if(conStates.containsKey(c))
+					queueWeights(c);
+			}
+		}
 		/** SCORP */
 	}
 	
 	/** Called to update the average connected time this host had 
 	 *  with the different interests of encountered **/
 	private void updateAverageConnectedTimeToInterests(){
+		connectedTimePrefixSums.clear();
 		long currentday=SlotTimeCheck.getDay();
 		int currentslot = SlotTimeCheck.getcurrentslot();
 		Map<String,Double> currentAverageConnectedTimeToInterests = averageConnectedTimeToInterests.get(currentslot);
@@ -586,7 +1075,9 @@ public class DecisionEngineRouter extends ActiveRouter
 			String currentHostInterest = hostInterestIterator.next();
 			double oldAD=0;
 			if(currentAverageConnectedTimeToInterests.get(currentHostInterest) == null){
-				oldAD=0;
+				/* an interest not tracked may have had up to the bound */
+				Double bound = currentAverageConnectedTimeToInterests.get(UNTRACKED_INTEREST);
+				oldAD = (topK > 0 && bound != null) ? bound : 0;
 			}
 			else{
 				oldAD=currentAverageConnectedTimeToInterests.get(currentHostInterest);
@@ -620,12 +1111,44 @@ public class DecisionEngineRouter extends ActiveRouter
 			}
 			currentAverageConnectedTimeToInterests.put(toUpdate,newvalue);
 		}
+		if(topK > 0)
+			keepTopInterests(currentAverageConnectedTimeToInterests);
 //		deltaTforImportance = connectedTimeToInterests;
 		connectedTimeToInterests = new HashMap<String,Double>();
 		//System.out.println("Its averageConnectedTimeToInterests after updateAverageDuration(): " + averageConnectedTimeToInterests);
 		//System.out.println("Its currentAverageDurationSlot: " + currentAverageConnectedTimeToInterests);
 	}
 	
+	/**
+	 * Keeps only the topK interests with the most average connected time of
+	 * a slot. The largest average dropped raises the upper bound of the 
+	 * untracked interests (kept under UNTRACKED_INTEREST and aged like the
+	 * others), which is where an interest starts from when it comes back,
+	 * as in Space-Saving.
+	 * @param averages Average connected time to interests of the slot
+	 */
+	private void keepTopInterests(Map<String, Double> averages){
+		Double bound = averages.remove(UNTRACKED_INTEREST);
+		if(averages.size() > topK){
+			List<Map.Entry<String, Double>> entries = 
+				new ArrayList<Map.Entry<String, Double>>(averages.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<String, Double>>() {
+				public int compare(Map.Entry<String, Double> e1, 
+						Map.Entry<String, Double> e2) {
+					return Double.compare(e2.getValue(), e1.getValue());
+				}
+			});
+			for(Map.Entry<String, Double> e : entries.subList(topK, entries.size())){
+				double average = e.getValue();
+				if(bound == null || average > bound)
+					bound = average;
+				averages.remove(e.getKey());
+			}
+		}
+		if(bound != null)
+			averages.put(UNTRACKED_INTEREST, bound);
+	}
+	
 	/** Called to update the social weight of this node 
 	 *  towards the different interests of encountered users **/
 	private void updateSocialWeightToInterests(){
@@ -691,7 +1214,7 @@ public class DecisionEngineRouter extends ActiveRouter
 //				}catch(Exception e){}
 		}
 		this.importance=0.2+0.8*newimportance;
-		importCopy.put(this.getHost(), this.importance);
+		getImportCopy().put(this.getHost(), this.importance);
 //		try{
 //			results2.write("Its importance now: "+ this.importance+"\n");
 //			results2.write("-----------------------\n");
@@ -713,16 +1236,368 @@ public class DecisionEngineRouter extends ActiveRouter
 		return importance;
 	}
 	*/
+	/**
+	 * Publishes the importance computed at the end of the slot. Called by the
+	 * slot system once every host has done its {@link #dailySampleDone()}, so
+	 * that no host sees the new importance of another one before computing 
+	 * its own.
+	 */
+	public void publishImportance() {
+		if(contactImportance != null)
+			getImportCopy().put(this.getHost(), contactImportance.publish());
+	}
+	
+	/**
+	 * Returns the importance state of this host
+	 * @return The state or null if importance isn't computed
+	 */
+	public ContactImportance getContactImportance() {
+		return this.contactImportance;
+	}
+	
+	/**
+	 * Returns true if the interests this router doesn't track get the upper
+	 * bound kept under {@link #UNTRACKED_INTEREST} instead of zero
+	 * @return true if the bound is used
+	 */
+	public boolean isUntrackedBound() {
+		return this.untrackedBound;
+	}
+	
 	public Map<String, Double> getweightToInterests() {
 		//	ageDeliveryPreds(); // make sure the aging is done
 			return this.weightToInterests;
 		}
+	
+	/** 
+	 * Returns the average connected time to interests of each slot
+	 */
+	public List<Map<String, Double>> getAverageConnectedTimeToInterests() {
+		return this.averageConnectedTimeToInterests;
+	}
+	
+	/**
+	 * Replaces the state learned by TECI with the given one (e.g. from a 
+	 * checkpoint) and publishes the restored social weights.
+	 * 
+	 * @param averages Average connected time to interests of each slot
+	 * @param weights Social weights towards interests
+	 */
+	public void restoreLearnedState(List<Map<String, Double>> averages, 
+			Map<String, Double> weights) {
+		this.averageConnectedTimeToInterests = 
+			new ArrayList<Map<String, Double>>(averages);
+		if(topK > 0)
+		{
+			for(Map<String, Double> slot : this.averageConnectedTimeToInterests)
+				keepTopInterests(slot);
+		}
+		this.connectedTimePrefixSums.clear();
+		this.weightToInterests = weights;
+		getWeightToInterestsCopy().put(this.getHost(), weightToInterests);
+		if(distributedWeights)
+			knownWeights.put(this.getHost(), weightToInterests);
+	}
+	
+	/**
+	 * Returns the connected time to an interest this host can expect from 
+	 * now until the given time, based on the average connected time of each
+	 * slot (a slot only partly in the period counts in proportion).
+	 * @param interest The interest
+	 * @param until End of the period (simulation time)
+	 * @return The expected connected time (seconds)
+	 */
+	public double getExpectedConnectedTime(String interest, double until) {
+		double now = SimClock.getTime();
+		if (until <= now) {
+			return 0;
+		}
+		double [] prefix = connectedTimePrefixSums.get(interest);
+		if (prefix == null) {
+			int n = averageConnectedTimeToInterests.size();
+			prefix = new double[n + 1];
+			for (int i = 0; i < n; i++) {
+				Double average = averageConnectedTimeToInterests.get(i).get(interest);
+				if (average == null && untrackedBound) {
+					average = averageConnectedTimeToInterests.get(i).get(UNTRACKED_INTEREST);
+				}
+				prefix[i + 1] = prefix[i] + (average == null ? 0 : average);
+			}
+			connectedTimePrefixSums.put(interest, prefix);
+		}
+		return getCumulativeConnectedTime(prefix, until) - 
+			getCumulativeConnectedTime(prefix, now);
+	}
+	
+	/**
+	 * Returns the expected connected time from the start of the simulation 
+	 * until the given time
+	 * @param prefix Prefix sums of the averages over the slots of a day
+	 * @param time The time
+	 */
+	private double getCumulativeConnectedTime(double [] prefix, double time) {
+		long day = (long)(time / 86400);
+		double timeOfDay = time - day * 86400.0;
+		double total = day * prefix[prefix.length - 1];
+		int slot = SlotTimeCheck.getslotat(timeOfDay);
+		if (slot < 0) {
+			return total + prefix[prefix.length - 1];
+		}
+		double fraction = (timeOfDay - SlotTimeCheck.getslotstart(slot)) / 
+			SlotTimeCheck.getslotlength(slot);
+		return total + prefix[slot] + fraction * (prefix[slot + 1] - prefix[slot]);
+	}
+	
+	/** 
+	 * Returns the social weights published by all hosts at the end of the 
+	 * last slot 
+	 */
+	public static Map<DTNHost, Map<String, Double>> getWeightToInterestsCopy() {
+		return weightToInterestsCopy;
+	}
+	
+	/**
+	 * Returns the social weights this host knows: with distributed weights 
+	 * its own and the ones received from its peers, otherwise the ones 
+	 * published by all hosts
+	 */
+	public Map<DTNHost, Map<String, Double>> getKnownWeights() {
+		return distributedWeights ? knownWeights : getWeightToInterestsCopy();
+	}
+	
+	/**
+	 * Returns the number of bytes of weight updates sent by this router
+	 */
+	public long getControlBytesSent() {
+		return controlBytesSent;
+	}
+	
+	/** 
+	 * Returns the importances published by all hosts
+	 */
+	public static Map<DTNHost, Double> getImportCopy() {
+		return importCopy;
+	}
 ////////////////
 	
 	protected void doExchange(Connection con, DTNHost otherHost)
 	{
 		conStates.put(con, 1);
 		decider.doExchangeForNewConnection(con, otherHost);
+		
+		MessageRouter otherRouter = otherHost.getRouter();
+		if(vaccine && otherRouter instanceof DecisionEngineRouter)
+			exchangeDeliveredSets((DecisionEngineRouter)otherRouter);
+		if(distributedWeights && otherRouter instanceof DecisionEngineRouter)
+		{
+			this.queueWeights(con);
+			((DecisionEngineRouter)otherRouter).queueWeights(con);
+		}
+	}
+	
+	private void initWeightExchange()
+	{
+		knownWeights = new HashMap<DTNHost, Map<String, Double>>();
+		sentWeights = new HashMap<DTNHost, Map<String, Double>>();
+		pendingWeights = new LinkedHashMap<Connection, Message>();
+		incomingWeights = new HashMap<String, Map<String, Double>>();
+	}
+	
+	/**
+	 * Queues a weight update for the peer of a connection with the entries
+	 * changed since the last update the peer received (if any changed). It
+	 * replaces an update still waiting for the connection.
+	 * @param con The connection
+	 */
+	protected void queueWeights(Connection con)
+	{
+		DTNHost peer = con.getOtherNode(getHost());
+		Map<String, Double> sent = sentWeights.get(peer);
+		Map<String, Double> delta = new HashMap<String, Double>();
+		int size = WEIGHTS_HEADER_SIZE;
+		for(Map.Entry<String, Double> e : weightToInterests.entrySet())
+		{
+			if(sent == null || !e.getValue().equals(sent.get(e.getKey())))
+			{
+				delta.put(e.getKey(), e.getValue());
+				size += e.getKey().length() + WEIGHT_SIZE;
+			}
+		}
+		if(sent != null)
+		{
+			for(String interest : sent.keySet())
+			{
+				if(!weightToInterests.containsKey(interest))
+				{
+					delta.put(interest, null);
+					size += interest.length();
+				}
+			}
+		}
+		if(delta.isEmpty())
+		{
+			pendingWeights.remove(con);
+			return;
+		}
+		
+		Message update = new Message(getHost(), peer, WEIGHTS_ID_PREFIX + 
+				getHost().getAddress() + ":" + nextWeightsId++, size);
+		update.addProperty(WEIGHTS_PROP, Collections.unmodifiableMap(delta));
+		pendingWeights.put(con, update);
+		wakeUp();
+	}
+	
+	/**
+	 * Tries to start sending the queued weight updates
+	 * @return true if a transfer was started
+	 */
+	private boolean sendWeightUpdates()
+	{
+		for(Iterator<Map.Entry<Connection, Message>> i = 
+				pendingWeights.entrySet().iterator(); i.hasNext();)
+		{
+			Map.Entry<Connection, Message> e = i.next();
+			if(!e.getKey().isUp())
+			{
+				i.remove();
+			}
+			else if(startTransfer(e.getValue(), e.getKey()) == RCV_OK)
+			{
+				i.remove();
+				controlBytesSent += e.getValue().getSize();
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns true if the message is a weight update
+	 * @param m The message
+	 * @return true for a weight update
+	 */
+	public static boolean isWeightUpdate(Message m)
+	{
+		return m.getProperty(WEIGHTS_PROP) != null;
+	}
+	
+	/**
+	 * Returns the weight entries of a weight update
+	 * @param update The weight update
+	 * @return The changed weights (null for the removed ones)
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Double> getWeightEntries(Message update)
+	{
+		return (Map<String, Double>)update.getProperty(WEIGHTS_PROP);
+	}
+	
+	/**
+	 * Applies weight entries to a copy of the weights known of a host
+	 * @param weights The weights to start from (null if none)
+	 * @param entries The entries to apply
+	 * @return The updated copy
+	 */
+	private static Map<String, Double> applyWeightEntries(
+			Map<String, Double> weights, Map<String, Double> entries)
+	{
+		Map<String, Double> updated = weights == null ? 
+			new HashMap<String, Double>() : new HashMap<String, Double>(weights);
+		for(Map.Entry<String, Double> e : entries.entrySet())
+		{
+			if(e.getValue() == null)
+				updated.remove(e.getKey());
+			else
+				updated.put(e.getKey(), e.getValue());
+		}
+		return updated;
+	}
+	
+	/**
+	 * Merges the delivered sets of this router and a peer (both ways) and 
+	 * lets both purge the messages that reached enough recipients. The sets
+	 * of expired messages are dropped first, so only live messages are 
+	 * exchanged.
+	 * @param other Router of the peer
+	 */
+	private void exchangeDeliveredSets(DecisionEngineRouter other)
+	{
+		this.forgetExpiredDeliveries();
+		other.forgetExpiredDeliveries();
+		for(Map.Entry<String, BitSet> e : other.deliveredTo.entrySet())
+		{
+			BitSet mine = deliveredTo.get(e.getKey());
+			if(mine == null)
+			{
+				deliveredTo.put(e.getKey(), (BitSet)e.getValue().clone());
+				deliveredExpiries.put(e.getKey(), other.deliveredExpiries.get(e.getKey()));
+			}
+			else
+				mine.or(e.getValue());
+		}
+		for(Map.Entry<String, BitSet> e : deliveredTo.entrySet())
+		{
+			BitSet theirs = other.deliveredTo.get(e.getKey());
+			if(theirs == null)
+			{
+				other.deliveredTo.put(e.getKey(), (BitSet)e.getValue().clone());
+				other.deliveredExpiries.put(e.getKey(), deliveredExpiries.get(e.getKey()));
+			}
+			else
+				theirs.or(e.getValue());
+		}
+		this.purgeVaccinated();
+		other.purgeVaccinated();
+	}
+	
+	/**
+	 * Drops the delivered sets of the messages whose TTL has expired
+	 */
+	private void forgetExpiredDeliveries()
+	{
+		double now = SimClock.getTime();
+		for(Iterator<Map.Entry<String, Double>> i = deliveredExpiries.entrySet().iterator(); i.hasNext();)
+		{
+			Map.Entry<String, Double> e = i.next();
+			if(e.getValue() <= now)
+			{
+				deliveredTo.remove(e.getKey());
+				i.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if a message is known to have reached enough of the hosts
+	 * interested in it
+	 * @param m The message
+	 * @return true if the message can be purged
+	 */
+	protected boolean isVaccinated(Message m)
+	{
+		BitSet hosts = deliveredTo.get(m.getId());
+		if(hosts == null)
+			return false;
+		int expected = SimScenario.getInstance().getInterestIndex().
+			getNrofExpectedRecipients(m);
+		return expected > 0 && 
+			hosts.cardinality() >= Math.ceil(expected * vaccineFraction);
+	}
+	
+	/**
+	 * Drops the buffered messages (not being sent) that are known to have 
+	 * reached enough recipients
+	 */
+	private void purgeVaccinated()
+	{
+		List<String> purged = new ArrayList<String>();
+		for(Message m : getMessageCollection())
+		{
+			if(!isSending(m.getId()) && isVaccinated(m))
+				purged.add(m.getId());
+		}
+		for(String id : purged)
+			this.deleteMessage(id, false);
 	}
 	
 	/**
@@ -748,6 +1623,21 @@ public class DecisionEngineRouter extends ActiveRouter
 		retVal = con.startTransfer(getHost(), m);
 		if (retVal == RCV_OK) { // started transfer
 			addToSendingConnections(con);
+			if(pipelineTransfers || partialTransfers) {
+				double start = transferStart < 0 ? SimClock.getTime() : transferStart;
+				int offset = getResumeOffset(m, con);
+				transferEnds.put(con, start + (m.getSize() - offset) / con.getSpeed());
+				if(partialTransfers && !isBundle(m) && !isWeightUpdate(m))
+					outgoingTransfers.put(con, new OutgoingTransfer(m, start, offset));
+			}
+			if(fairQueue && !isWeightUpdate(m)) {
+				chargeFairQueue(m, con);
+			}
+		}
+		else if(isBundle(m))
+		{
+			if(retVal < 0) // every bundled message was refused
+				removeOutgoing(getBundledMessages(m), con);
 		}
 		else if(tombstoning && retVal == DENIED_DELIVERED)
 		{
@@ -767,14 +1657,44 @@ public class DecisionEngineRouter extends ActiveRouter
 
 	@Override
 	 public int receiveMessage(Message m, DTNHost from){
+		if(isWeightUpdate(m))
+		{
+			/* never buffered: checkReceiving would make room for it */
+			if(isTransferring())
+				return TRY_LATER_BUSY;
+			if(m.getTtl() <= 0)
+				return DENIED_TTL;
+			incomingWeights.put(m.getId() + "_" + from, getWeightEntries(m));
+			return RCV_OK;
+		}
+		if(isBundle(m))
+		{
+			/* room is made only for the bundled messages accepted */
+			if(isTransferring())
+				return TRY_LATER_BUSY;
+			return receiveBundle(m, from);
+		}
 		int recvCheck = checkReceiving(m); 
 		if (recvCheck != RCV_OK) {
 			return recvCheck;
 		}
 		if(isDeliveredMessage(m) || (tombstoning && tombstones.contains(m.getId())))
 			return DENIED_DELIVERED; 
+		if(vaccine && isVaccinated(m))
+			return DENIED_DELIVERED;
 		
-	 return super.receiveMessage(m, from);
+		int retVal = super.receiveMessage(m, from);
+		if(retVal == RCV_OK && partialTransfers)
+		{
+			/* continue from the bytes received earlier (if any) */
+			PartialTransfer partial = partials.remove(m.getId());
+			if(partial != null)
+			{
+				partialBytes -= partial.bytesReceived;
+				resumeOffsets.put(m.getId() + "_" + from, partial.bytesReceived);
+			}
+		}
+		return retVal;
 	 }
 //	public int receiveMessage(Message m, DTNHost from)
 //	{
@@ -787,7 +1707,30 @@ public class DecisionEngineRouter extends ActiveRouter
 	@Override
 	public Message messageTransferred(String id, DTNHost from)
 	{
+		List<String> bundled = incomingBundles.remove(id + "_" + from);
+		if(bundled != null)
+		{
+			/* unpack: each message is received as if sent alone */
+			Message last = null;
+			for(String bundledId : bundled)
+				last = messageTransferred(bundledId, from);
+			return last;
+		}
+		
+		Map<String, Double> weights = incomingWeights.remove(id + "_" + from);
+		if(weights != null)
+		{
+			/* control message: only the peer's weights change */
+			knownWeights.put(from, applyWeightEntries(knownWeights.get(from), weights));
+			wakeUpWithPeers();
+			return null;
+		}
+		
 		Message incoming = removeFromIncomingBuffer(id, from);
+		resumeOffsets.remove(id + "_" + from);
+		PartialTransfer partial = partials.remove(id);
+		if(partial != null)
+			partialBytes -= partial.bytesReceived;
 	
 		if (incoming == null) {
 			throw new SimError("No message with ID " + id + " in the incoming "+
@@ -808,7 +1751,7 @@ public class DecisionEngineRouter extends ActiveRouter
 		/*** ADD getHost().getInterests().contains(aMessage.getContentType())
 		 * SCORP ***/
 		boolean isFinalRecipient = decider.isFinalDest(aMessage, getHost(), 
-				getHost().getInterests().contains(aMessage.getContentType()));
+				aMessage.isOfInterestTo(getHost()));
 		boolean isFirstDelivery =  isFinalRecipient && 
 			!isDeliveredMessage(aMessage);
 		
@@ -825,8 +1768,25 @@ public class DecisionEngineRouter extends ActiveRouter
 		if (isFirstDelivery)
 		{
 			this.deliveredMessages.put(id, aMessage);
+			if(vaccine)
+			{
+				BitSet hosts = deliveredTo.get(id);
+				if(hosts == null)
+				{
+					hosts = new BitSet();
+					deliveredTo.put(id, hosts);
+					deliveredExpiries.put(id, SimClock.getTime() + 
+							(aMessage.getTtl() + 1.0) * 60); // TTL is in whole minutes
+				}
+				hosts.set(getHost().getAddress());
+				if(this.hasMessage(id) && isVaccinated(aMessage))
+					this.deleteMessage(id, false);
+			}
 		}
 		
+		/* the connection is free again: peers can try to send to us */
+		wakeUpWithPeers();
+		
 		for (MessageListener ml : this.mListeners) {
 			ml.messageTransferred(aMessage, from, getHost(),
 					isFirstDelivery);
@@ -838,8 +1798,43 @@ public class DecisionEngineRouter extends ActiveRouter
 	@Override
 	protected void transferDone(Connection con)
 	{
-		Message transferred = this.getMessage(con.getMessage().getId());
-		
+		outgoingTransfers.remove(con);
+		Message sent = con.getMessage();
+		if(isWeightUpdate(sent))
+		{
+			/* the peer has the entries now */
+			DTNHost peer = con.getOtherNode(getHost());
+			sentWeights.put(peer, applyWeightEntries(sentWeights.get(peer), 
+					getWeightEntries(sent)));
+		}
+		else if(isBundle(sent))
+		{
+			List<?> accepted = (List<?>)sent.getProperty(BUNDLE_ACCEPTED_PROP);
+			for(Object id : accepted)
+			{
+				Message transferred = this.getMessage((String)id);
+				if(transferred != null)
+					messageSent(transferred, con);
+			}
+			/* the refused ones aren't needed by the receiver either */
+			removeOutgoing(getBundledMessages(sent), con);
+		}
+		else
+		{
+			Message transferred = this.getMessage(sent.getId());
+			if(transferred != null) // may have been purged while sending
+				messageSent(transferred, con);
+		}
+		wakeUpWithPeers();
+	}
+	
+	/**
+	 * Updates the outgoing queue and the buffer after a message was sent
+	 * @param transferred The message that was sent
+	 * @param con The connection the message was sent through
+	 */
+	private void messageSent(Message transferred, Connection con)
+	{
 		for(Iterator<Tuple<Message, Connection>> i = outgoingMessages.iterator(); 
 		i.hasNext();)
 		{
@@ -861,23 +1856,85 @@ public class DecisionEngineRouter extends ActiveRouter
 			
 		}
 	}
+	
+	@Override
+	protected void transferAborted(Connection con)
+	{
+		super.transferAborted(con);
+		transferEnds.remove(con);
+		OutgoingTransfer t = outgoingTransfers.remove(con);
+		if(t != null)
+		{
+			/* the receiver takes these instead of the connection's count */
+			int sent = t.offset + (int)((SimClock.getTime() - t.start) * con.getSpeed());
+			abortedBytes.put(t.message.getId() + "_" + con.getOtherNode(getHost()), 
+					Math.min(sent, t.message.getSize()));
+		}
+		wakeUpWithPeers();
+	}
+	
+	@Override
+	public void messageAborted(String id, DTNHost from, int bytesRemaining)
+	{
+		List<String> bundled = incomingBundles.remove(id + "_" + from);
+		if(bundled != null)
+		{
+			for(String bundledId : bundled)
+				super.messageAborted(bundledId, from, -1);
+		}
+		else if(incomingWeights.remove(id + "_" + from) != null)
+		{
+			/* resent by the peer on the next update */
+		}
+		else
+		{
+			Integer received = null;
+			MessageRouter r = from.getRouter();
+			if(r instanceof DecisionEngineRouter)
+				received = ((DecisionEngineRouter)r).abortedBytes.remove(id + "_" + getHost());
+			if(partialTransfers && (received != null || bytesRemaining >= 0))
+				keepPartialTransfer(id, from, received, bytesRemaining);
+			super.messageAborted(id, from, bytesRemaining);
+		}
+		wakeUpWithPeers();
+	}
 
 	@Override
 	public void update(){
+		if(!pendingDowns.isEmpty()){
+			finishPendingDowns(false);
+		}
+		if(SimScenario.getInstance().isTeciWarmup()){
+			return; // contacts-only warm-up: no transfers nor TTL checks
+		}
+		
+		if (!transferEnds.isEmpty()) {
+			finishEndedTransfers();
+		}
+		
 		super.update();
 
 		/* time to do a TTL check and drop old messages? Only if not sending */
 		if (SimClock.getTime() - lastTtlCheck >= TTL_CHECK_INTERVAL && 
 				sendingConnections.size() == 0) {
 			dropExpiredMessages();
+			trimPartialTransfers();
 			lastTtlCheck = SimClock.getTime();
 		}
 
+		if (!pendingWeights.isEmpty() && !isTransferring() && 
+				sendWeightUpdates()) {
+			return; // the weight updates go before the messages
+		}
+
 		if (!canStartTransfer() || isTransferring()) {
+			sleep(); // woken up by new messages, connections or free peers
 			return; // nothing to transfer or is currently transferring 
 		} 
 
-		tryMessagesForConnected(outgoingMessages); 
+		if (tryOutgoing(outgoingMessages) == null) {
+			sleep(); // every queued message was refused or is busy
+		}
 
 		for(Iterator<Tuple<Message, Connection>> i = outgoingMessages.iterator(); i.hasNext();){
 			Tuple<Message, Connection> t = i.next();
@@ -886,6 +1943,559 @@ public class DecisionEngineRouter extends ActiveRouter
 			}
 		}
 	 }
+	
+	/**
+	 * Tries to start a transfer of the queued messages, in bundles if 
+	 * bundling is used.
+	 * @param tuples The queued messages and their connections
+	 * @return The started message and its connection or null if none started
+	 */
+	private Tuple<Message, Connection> tryOutgoing(
+			List<Tuple<Message, Connection>> tuples){
+		if(contactAwareScheduling){
+			tuples = selectForContacts(tuples);
+		}
+		if(fairQueue){
+			tuples = orderFairly(tuples);
+		}
+		if(bundleSize > 0){
+			return tryBundlesForConnected(tuples);
+		}
+		return tryMessagesForConnected(tuples);
+	}
+	
+	/**
+	 * Chooses, per connection, the queued messages that fit in the predicted
+	 * rest of the contact, the ones with the highest forwarding utility per
+	 * byte first (a greedy knapsack). The queue of a connection without a 
+	 * prediction is kept as it is.
+	 * @param tuples The queued messages and their connections
+	 * @return The chosen messages in the order they should be tried
+	 */
+	private List<Tuple<Message, Connection>> selectForContacts(
+			List<Tuple<Message, Connection>> tuples){
+		ContactAwareDecisionEngine engine = (ContactAwareDecisionEngine)decider;
+		double now = SimClock.getTime();
+		double start = transferStart < 0 ? now : transferStart;
+		
+		Map<Connection, List<Tuple<Message, Connection>>> queues = 
+			new LinkedHashMap<Connection, List<Tuple<Message, Connection>>>();
+		for(Tuple<Message, Connection> t : tuples){
+			if(!this.hasMessage(t.getKey().getId())){
+				continue;
+			}
+			List<Tuple<Message, Connection>> queue = queues.get(t.getValue());
+			if(queue == null){
+				queue = new ArrayList<Tuple<Message, Connection>>();
+				queues.put(t.getValue(), queue);
+			}
+			queue.add(t);
+		}
+		
+		List<Tuple<Message, Connection>> selected = 
+			new ArrayList<Tuple<Message, Connection>>();
+		for(Map.Entry<Connection, List<Tuple<Message, Connection>>> e : 
+				queues.entrySet()){
+			Connection con = e.getKey();
+			DTNHost peer = con.getOtherNode(getHost());
+			double remaining = engine.predictRemainingContactTime(getHost(), peer);
+			if(remaining < 0){
+				selected.addAll(e.getValue());
+				continue;
+			}
+			
+			final Map<Message, Double> values = new HashMap<Message, Double>();
+			for(Tuple<Message, Connection> t : e.getValue()){
+				Message m = t.getKey();
+				values.put(m, engine.getForwardingUtility(m, getHost(), peer) / 
+						Math.max(1, m.getSize() - getResumeOffset(m, con)));
+			}
+			List<Tuple<Message, Connection>> queue = e.getValue();
+			Collections.sort(queue, new Comparator<Tuple<Message, Connection>>() {
+				public int compare(Tuple<Message, Connection> t1, 
+						Tuple<Message, Connection> t2) {
+					return Double.compare(values.get(t2.getKey()), 
+							values.get(t1.getKey()));
+				}
+			});
+			
+			double capacity = (remaining + now - start) * con.getSpeed();
+			for(Tuple<Message, Connection> t : queue){
+				int bytes = t.getKey().getSize() - getResumeOffset(t.getKey(), con);
+				if(bytes <= capacity){
+					selected.add(t);
+					capacity -= bytes;
+				}
+			}
+		}
+		return selected;
+	}
+	
+	/**
+	 * Orders the queued messages of each connection by weighted fair queuing
+	 * across content types: messages of the same content type keep their 
+	 * order and the content type whose next message gets the smallest 
+	 * virtual finish tag goes first. A message of several content types is
+	 * tagged like a flow of all of them (see {@link #getFairStart}). 
+	 * @param tuples The queued messages and their connections
+	 * @return The messages in the order they should be tried
+	 */
+	private List<Tuple<Message, Connection>> orderFairly(
+			List<Tuple<Message, Connection>> tuples){
+		Map<Connection, Map<String, LinkedList<Tuple<Message, Connection>>>> 
+			queues = new LinkedHashMap<Connection, 
+				Map<String, LinkedList<Tuple<Message, Connection>>>>();
+		for(Tuple<Message, Connection> t : tuples){
+			Map<String, LinkedList<Tuple<Message, Connection>>> classes = 
+				queues.get(t.getValue());
+			if(classes == null){
+				classes = new LinkedHashMap<String, 
+					LinkedList<Tuple<Message, Connection>>>();
+				queues.put(t.getValue(), classes);
+			}
+			/* same content types (all of them) keep their order */
+			String type = t.getKey().getContentType();
+			LinkedList<Tuple<Message, Connection>> queue = classes.get(type);
+			if(queue == null){
+				queue = new LinkedList<Tuple<Message, Connection>>();
+				classes.put(type, queue);
+			}
+			queue.add(t);
+		}
+		
+		List<Tuple<Message, Connection>> ordered = 
+			new ArrayList<Tuple<Message, Connection>>(tuples.size());
+		for(Map.Entry<Connection, Map<String, LinkedList<Tuple<Message, 
+				Connection>>>> e : queues.entrySet()){
+			FairQueueState state = fairStates.get(e.getKey());
+			double virtualTime = state == null ? 0 : state.virtualTime;
+			Map<String, Double> finishTags = new HashMap<String, Double>();
+			if(state != null){
+				finishTags.putAll(state.finishTags);
+			}
+			
+			Map<String, LinkedList<Tuple<Message, Connection>>> classes = e.getValue();
+			while(!classes.isEmpty()){
+				String next = null;
+				double nextStart = 0;
+				double nextFinish = Double.MAX_VALUE;
+				for(Map.Entry<String, LinkedList<Tuple<Message, Connection>>> c : 
+						classes.entrySet()){
+					Message head = c.getValue().getFirst().getKey();
+					double start = getFairStart(head, finishTags, virtualTime);
+					double finish = start + head.getSize() / getFairWeight(head);
+					if(finish < nextFinish){
+						next = c.getKey();
+						nextStart = start;
+						nextFinish = finish;
+					}
+				}
+				LinkedList<Tuple<Message, Connection>> queue = classes.get(next);
+				Tuple<Message, Connection> t = queue.removeFirst();
+				ordered.add(t);
+				if(queue.isEmpty()){
+					classes.remove(next);
+				}
+				for(String type : getFairTypes(t.getKey())){
+					finishTags.put(type, nextFinish);
+				}
+				virtualTime = nextStart;
+			}
+		}
+		return ordered;
+	}
+	
+	/**
+	 * Updates the fair queuing tags of a connection for a started transfer
+	 * @param m The message (or bundle) being sent
+	 * @param con The connection
+	 */
+	private void chargeFairQueue(Message m, Connection con){
+		FairQueueState state = fairStates.get(con);
+		if(state == null){
+			state = new FairQueueState();
+			fairStates.put(con, state);
+		}
+		List<Message> msgs = isBundle(m) ? getBundledMessages(m) : 
+			Collections.singletonList(m);
+		for(Message sent : msgs){
+			double start = getFairStart(sent, state.finishTags, state.virtualTime);
+			double finish = start + sent.getSize() / getFairWeight(sent);
+			for(String type : getFairTypes(sent)){
+				state.finishTags.put(type, finish);
+			}
+			state.virtualTime = start;
+		}
+	}
+	
+	/**
+	 * Returns the content types a message is queued fairly under (a single 
+	 * null type for a message without any)
+	 */
+	private List<String> getFairTypes(Message m){
+		List<String> types = m.getContentTypes();
+		return types.isEmpty() ? Collections.<String>singletonList(null) : types;
+	}
+	
+	/**
+	 * Returns the virtual start tag of a message: after the latest finish 
+	 * tag of any of its content types, so a message of several types waits 
+	 * for the turn of each of them
+	 * @param m The message
+	 * @param finishTags Latest finish tag of each content type
+	 * @param virtualTime Current virtual time of the connection
+	 * @return The start tag
+	 */
+	private double getFairStart(Message m, Map<String, Double> finishTags, 
+			double virtualTime){
+		double start = virtualTime;
+		for(String type : getFairTypes(m)){
+			Double last = finishTags.get(type);
+			if(last != null){
+				start = Math.max(start, last);
+			}
+		}
+		return start;
+	}
+	
+	/**
+	 * Returns the fair queuing weight of a message: the sum of the weights 
+	 * of its content types, as it serves all of their audiences
+	 * @param m The message
+	 * @return The weight
+	 */
+	private double getFairWeight(Message m){
+		double weight = 0;
+		for(String type : getFairTypes(m)){
+			weight += getFairWeight(type);
+		}
+		return weight;
+	}
+	
+	/**
+	 * Returns the fair queuing weight of a content type. By population, the 
+	 * weight grows with the square root of the audience: a share in 
+	 * proportion to the audience would let a 500-host interest take 500 
+	 * times the link of a 1-host one, which is the starvation fair queuing
+	 * is meant to avoid.
+	 * @param type The content type
+	 * @return The weight
+	 */
+	private double getFairWeight(String type){
+		Double weight = fairWeights.get(type);
+		if(weight != null){
+			return weight;
+		}
+		if(fairByPopulation && type != null){
+			return Math.max(1, Math.sqrt(SimScenario.getInstance().
+					getInterestIndex().getNrofInterestedHosts(type)));
+		}
+		return 1;
+	}
+	
+	/**
+	 * Finishes the transfers that ended (by the transfer speed and resume
+	 * offset) before the current time. With pipelining, the next queued 
+	 * messages of those connections are started at the time the previous 
+	 * transfers ended, so the link isn't left idle until the next update and
+	 * several transfers may be done within one update interval.
+	 */
+	private void finishEndedTransfers(){
+		double now = SimClock.getTime();
+		for(Connection con : new ArrayList<Connection>(sendingConnections)){
+			Double done = transferEnds.get(con);
+			while(done != null && done <= now && con.isUp() && 
+					con.getMessage() != null){
+				transferDone(con);
+				con.finalizeTransfer();
+				sendingConnections.remove(con);
+				transferEnds.remove(con);
+				
+				if(!pipelineTransfers || !canStartTransfer() || isTransferring()){
+					break;
+				}
+				List<Tuple<Message, Connection>> queued = 
+					new ArrayList<Tuple<Message, Connection>>();
+				for(Tuple<Message, Connection> t : outgoingMessages){
+					if(t.getValue() == con && this.hasMessage(t.getKey().getId())){
+						queued.add(t);
+					}
+				}
+				transferStart = done;
+				tryOutgoing(queued);
+				transferStart = -1;
+				done = transferEnds.get(con);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes of a message the receiver already got from
+	 * an aborted transfer (i.e. the offset the transfer resumes from)
+	 * @param m The message being sent
+	 * @param con The connection it's sent through
+	 * @return The resume offset (bytes)
+	 */
+	private int getResumeOffset(Message m, Connection con){
+		MessageRouter r = con.getOtherNode(getHost()).getRouter();
+		if(!partialTransfers || isBundle(m) || !(r instanceof DecisionEngineRouter)){
+			return 0;
+		}
+		Integer offset = ((DecisionEngineRouter)r).resumeOffsets.get(
+				m.getId() + "_" + getHost());
+		return offset == null ? 0 : offset;
+	}
+	
+	/**
+	 * Keeps the bytes received of an aborted message so a later transfer 
+	 * can continue from them
+	 * @param id Id of the message
+	 * @param from The sender
+	 * @param sent Bytes of the message the sender counted as sent (resume
+	 * offset included) or null if it doesn't know them
+	 * @param bytesRemaining Bytes that were left of the aborted transfer by
+	 * the connection (used if the sender doesn't know the bytes sent)
+	 */
+	private void keepPartialTransfer(String id, DTNHost from, Integer sent,
+			int bytesRemaining){
+		Message m = getIncomingMessage(id, from);
+		Integer offset = resumeOffsets.remove(id + "_" + from);
+		if(m == null || m.getTtl() <= 0){
+			return;
+		}
+		int received = sent != null ? sent : 
+			(offset == null ? 0 : offset) + m.getSize() - bytesRemaining;
+		received = Math.min(received, m.getSize() - 1);
+		if(received <= 0){
+			return;
+		}
+		PartialTransfer old = partials.remove(id);
+		if(old != null){
+			partialBytes -= old.bytesReceived;
+		}
+		partials.put(id, new PartialTransfer(m, received));
+		partialBytes += received;
+		trimPartialTransfers();
+	}
+	
+	/**
+	 * Drops the partially received messages that have expired and, the 
+	 * oldest first, the ones that don't fit in the free buffer space
+	 */
+	private void trimPartialTransfers(){
+		int free = getFreeBufferSize();
+		for(Iterator<PartialTransfer> i = partials.values().iterator(); i.hasNext();){
+			PartialTransfer p = i.next();
+			if(p.message.getTtl() <= 0 || partialBytes > free){
+				partialBytes -= p.bytesReceived;
+				i.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Packs the messages queued for each connection into a bundle (or sends
+	 * a message alone if it is the only one fitting) and tries to start the
+	 * transfer, connection by connection.
+	 * @param tuples The queued messages and their connections
+	 * @return The started bundle and its connection or null if none started
+	 */
+	private Tuple<Message, Connection> tryBundlesForConnected(
+			List<Tuple<Message, Connection>> tuples){
+		Map<Connection, List<Message>> queues = 
+			new LinkedHashMap<Connection, List<Message>>();
+		for(Tuple<Message, Connection> t : tuples){
+			Message m = t.getKey();
+			if(!this.hasMessage(m.getId()) || m.getTtl() <= 0){
+				continue;
+			}
+			List<Message> queue = queues.get(t.getValue());
+			if(queue == null){
+				queue = new ArrayList<Message>();
+				queues.put(t.getValue(), queue);
+			}
+			if(!queue.contains(m)){
+				queue.add(m);
+			}
+		}
+		
+		for(Map.Entry<Connection, List<Message>> e : queues.entrySet()){
+			Connection con = e.getKey();
+			List<Message> packed = new ArrayList<Message>();
+			int size = 0;
+			for(Message m : e.getValue()){
+				if(packed.isEmpty() || size + m.getSize() <= bundleSize){
+					packed.add(m);
+					size += m.getSize();
+				}
+			}
+			Message m = packed.size() == 1 ? packed.get(0) : 
+				createBundle(packed, con.getOtherNode(getHost()));
+			if(startTransfer(m, con) == RCV_OK){
+				return new Tuple<Message, Connection>(m, con);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Creates a bundle carrying the given messages
+	 * @param msgs The messages to pack
+	 * @param to The host the bundle is sent to
+	 * @return The bundle
+	 */
+	private Message createBundle(List<Message> msgs, DTNHost to){
+		int size = 0;
+		int ttl = Integer.MAX_VALUE;
+		for(Message m : msgs){
+			size += m.getSize();
+			ttl = Math.min(ttl, m.getTtl());
+		}
+		Message bundle = new Message(getHost(), to, BUNDLE_ID_PREFIX + 
+				getHost().getAddress() + ":" + nextBundleId++, size);
+		if(ttl != Integer.MAX_VALUE){
+			bundle.setTtl(ttl);
+		}
+		bundle.addProperty(BUNDLE_PROP, 
+				Collections.unmodifiableList(new ArrayList<Message>(msgs)));
+		return bundle;
+	}
+	
+	/**
+	 * Starts receiving the bundled messages this host doesn't have yet and
+	 * that fit together in the buffer. Messages that would be refused alone
+	 * (old, expired, tombstones, purged by the vaccine) are refused here 
+	 * too. Room is then made once, for the accepted messages only, so 
+	 * buffered messages are never dropped for bytes that are refused. The 
+	 * ids of the accepted messages are given back to the sender in the 
+	 * bundle.
+	 * @param bundle The bundle
+	 * @param from The sender
+	 * @return RCV_OK if any message was accepted, DENIED_OLD if not and
+	 * DENIED_NO_SPACE if no room could be made for them
+	 */
+	private int receiveBundle(Message bundle, DTNHost from){
+		List<Message> accepted = new ArrayList<Message>();
+		int size = 0;
+		for(Message m : getBundledMessages(bundle)){
+			if(hasMessage(m.getId()) || isIncomingMessage(m.getId()) ||
+					isDeliveredMessage(m) || 
+					(tombstoning && tombstones.contains(m.getId())) ||
+					(vaccine && isVaccinated(m)) ||
+					(m.getTtl() <= 0 && m.getTo() != getHost()) ||
+					size + m.getSize() > getBufferSize()){
+				continue;
+			}
+			accepted.add(m);
+			size += m.getSize();
+		}
+		if(accepted.isEmpty()){
+			return DENIED_OLD;
+		}
+		if(!makeRoomForMessage(size)){
+			return DENIED_NO_SPACE;
+		}
+		
+		List<String> ids = new ArrayList<String>();
+		for(Message m : accepted){
+			startReceiving(m, from);
+			ids.add(m.getId());
+		}
+		ids = Collections.unmodifiableList(ids);
+		bundle.updateProperty(BUNDLE_ACCEPTED_PROP, ids);
+		incomingBundles.put(bundle.getId() + "_" + from, ids);
+		return RCV_OK;
+	}
+	
+	/**
+	 * Puts a bundled message in the incoming buffer like 
+	 * MessageRouter.receiveMessage, without checking the receiving again
+	 * @param m The message
+	 * @param from The sender
+	 */
+	private void startReceiving(Message m, DTNHost from){
+		Message newMessage = m.replicate();
+		putToIncomingBuffer(newMessage, from);
+		newMessage.addNodeOnPath(getHost());
+		for(MessageListener ml : mListeners){
+			ml.messageTransferStarted(newMessage, from, getHost());
+		}
+	}
+	
+	/**
+	 * Returns true if the message is a bundle of other messages
+	 * @param m The message
+	 * @return true for a bundle
+	 */
+	public static boolean isBundle(Message m){
+		return m.getProperty(BUNDLE_PROP) != null;
+	}
+	
+	/**
+	 * Returns the messages packed in a bundle
+	 * @param bundle The bundle
+	 * @return The bundled messages
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Message> getBundledMessages(Message bundle){
+		return (List<Message>)bundle.getProperty(BUNDLE_PROP);
+	}
+	
+	/**
+	 * Removes the given messages from the outgoing queue of a connection
+	 * @param msgs The messages to remove
+	 * @param con The connection
+	 */
+	private void removeOutgoing(List<Message> msgs, Connection con){
+		for(Iterator<Tuple<Message, Connection>> i = outgoingMessages.iterator(); 
+				i.hasNext();){
+			Tuple<Message, Connection> t = i.next();
+			if(t.getValue() == con && msgs.contains(t.getKey())){
+				i.remove();
+			}
+		}
+	}
+	
+	/**
+	 * With active set scheduling the router is updated only if it is awake,
+	 * is sending, has applications or a TTL check is due for its messages.
+	 */
+	@Override
+	public boolean isUpdateDue(){
+		if(!activeSetScheduling || awake || !sendingConnections.isEmpty() ||
+				hasApplications() || !pendingDowns.isEmpty()){
+			return true;
+		}
+		return SimClock.getTime() - lastTtlCheck >= TTL_CHECK_INTERVAL && 
+			getNrofMessages() > 0;
+	}
+	
+	/**
+	 * Marks that the router may have work to do on the next update
+	 */
+	public void wakeUp(){
+		awake = true;
+	}
+	
+	/**
+	 * Wakes up this router and the routers of the connected hosts, e.g. when
+	 * a transfer has ended and the connections can be used again
+	 */
+	protected void wakeUpWithPeers(){
+		wakeUp();
+		for(Connection c : getConnections()){
+			MessageRouter r = c.getOtherNode(getHost()).getRouter();
+			if(r instanceof DecisionEngineRouter){
+				((DecisionEngineRouter)r).wakeUp();
+			}
+		}
+	}
+	
+	private void sleep(){
+		if(activeSetScheduling){
+			awake = false;
+		}
+	}
 //	public void update()
 //	{
 //		super.update();
@@ -906,10 +2516,35 @@ public class DecisionEngineRouter extends ActiveRouter
 //		}
 //	}
 	
+	/**
+	 * The router has nothing to do before its next message expires unless it
+	 * is sending or has messages queued for its connections.
+	 */
+	@Override
+	public double getNextEventTime(){
+		double now = SimClock.getTime();
+		if(!sendingConnections.isEmpty() || (awake && 
+				(!outgoingMessages.isEmpty() || !pendingWeights.isEmpty()))){
+			return now;
+		}
+		double next = Double.MAX_VALUE;
+		for(double down : pendingDowns.values()){
+			next = Math.min(next, down + flapWindow);
+		}
+		for(Message m : getMessageCollection()){
+			int ttl = m.getTtl();
+			if(ttl != Integer.MAX_VALUE){
+				next = Math.min(next, now + Math.max(0, ttl - 1) * 60.0);
+			}
+		}
+		return next;
+	}
+	
 	@Override
 	public void deleteMessage(String id, boolean drop)
 	{
 		super.deleteMessage(id, drop);
+		wakeUpWithPeers(); // there may be room for messages refused before
 		
 		for(Iterator<Tuple<Message, Connection>> i = outgoingMessages.iterator(); 
 		i.hasNext();)
@@ -947,4 +2582,43 @@ public class DecisionEngineRouter extends ActiveRouter
 			}
 		}
 	}
+	
+	/** Start-time fair queuing tags of a connection */
+	private static class FairQueueState
+	{
+		/** Start tag of the latest started message */
+		private double virtualTime;
+		/** Finish tag of the latest started message of each content type */
+		private Map<String, Double> finishTags = new HashMap<String, Double>();
+	}
+	
+	/** A resumable transfer as counted by the sender */
+	private static class OutgoingTransfer
+	{
+		private Message message;
+		/** Start of the transfer (the end of the previous one if pipelined) */
+		private double start;
+		/** Bytes the receiver already had when the transfer started */
+		private int offset;
+		
+		private OutgoingTransfer(Message message, double start, int offset)
+		{
+			this.message = message;
+			this.start = start;
+			this.offset = offset;
+		}
+	}
+	
+	/** Bytes received of a message whose transfer was aborted */
+	private static class PartialTransfer
+	{
+		private Message message;
+		private int bytesReceived;
+		
+		private PartialTransfer(Message message, int bytesReceived)
+		{
+			this.message = message;
+			this.bytesReceived = bytesReceived;
+		}
+	}
 }
@@ -186,12 +186,50 @@ public abstract class MessageRouter {
 		}
 	}
 	
+	/**
+	 * Returns true if the router has to be updated on this simulation 
+	 * interval. Routers that know when they have work to do can return false
+	 * to be left out of the update. By default the router is always updated.
+	 * @return true if {@link #update()} should be called now
+	 */
+	public boolean isUpdateDue() {
+		return true;
+	}
+	
+	/**
+	 * Returns true if there are applications attached to the router (those
+	 * are updated on every update of the router)
+	 * @return true if the router has applications
+	 */
+	protected boolean hasApplications() {
+		return !this.applications.isEmpty();
+	}
+	
+	/**
+	 * Returns the earliest time when this router may have something to do
+	 * (e.g. a transfer to finish or a message to expire), used for skipping
+	 * idle periods. By default this is the current time, i.e. the router 
+	 * can't be skipped.
+	 * @return The time of the router's next event
+	 */
+	public double getNextEventTime() {
+		return SimClock.getTime();
+	}
+	
 	/**
 	 * Informs the router about change in connections state.
 	 * @param con The connection that changed
 	 */
 	public abstract void changedConnection(Connection con);	
 	
+	/**
+	 * Informs the router that the interests of a connected peer changed.
+	 * By default nothing is done.
+	 * @param con The connection to the peer
+	 */
+	public void peerInterestsChanged(Connection con) {
+	}
+	
 	/**
 	 * Returns a message by ID.
 	 * @param id ID of the message
@@ -402,6 +440,17 @@ public abstract class MessageRouter {
 		return this.incomingMessages.remove(id + "_" + from.toString());
 	}
 	
+	/**
+	 * Returns a message with a certain ID from the incoming messages buffer
+	 * or null if such message wasn't found. The message is not removed.
+	 * @param id ID of the message
+	 * @param from The host that sent this message (previous hop)
+	 * @return The found message or null if such message wasn't found
+	 */
+	protected Message getIncomingMessage(String id, DTNHost from) {
+		return this.incomingMessages.get(id + "_" + from.toString());
+	}
+	
 	/**
 	 * Returns true if a message with the given ID is one of the
 	 * currently incoming messages, false if not
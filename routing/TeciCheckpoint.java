@@ -0,0 +1,265 @@
+/**
+ * TeciCheckpoint.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package routing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import core.DTNHost;
+import core.Settings;
+import core.SimError;
+import core.SlotTimeCheck;
+
+/**
+ * Saves and restores the state learned by TECI, so a warm-up period can be
+ * simulated once and reused by many runs over the same mobility scenario.
+ * <P>
+ * The checkpoint holds the current day and slot of the slot system and, for
+ * every host, the average connected time to interests of each slot and the
+ * social weights. It is written in a compact binary form where every
+ * interest name is stored only once.
+ * </P><P>
+ * Settings (in the DecisionEngineRouter namespace):
+ * <UL>
+ * <LI/> {@value #SAVE_FILE_S} : file where the checkpoint is written
+ * <LI/> {@value #SAVE_DAY_S} : number of days after which the checkpoint is
+ * written (default 1). Checkpoints are written at the end of a day so the
+ * restored slot lines up with the start of a new run.
+ * <LI/> {@value #LOAD_FILE_S} : checkpoint restored when the scenario starts
+ * </UL>
+ * </P>
+ */
+public class TeciCheckpoint {
+	/** Checkpoint file to write -setting id ({@value}) */
+	public static final String SAVE_FILE_S = "checkpointSaveFile";
+	/** Days after which the checkpoint is written -setting id ({@value}) */
+	public static final String SAVE_DAY_S = "checkpointSaveDay";
+	/** Checkpoint file to restore -setting id ({@value}) */
+	public static final String LOAD_FILE_S = "checkpointLoadFile";
+
+	/** Identifies checkpoint files ("TECI") */
+	private static final int MAGIC = 0x54454349;
+	/** Version of the file format */
+	private static final int VERSION = 1;
+
+	private String saveFile;
+	private long saveDay;
+	private String loadFile;
+
+	/**
+	 * Creates a checkpoint handler based on the settings
+	 * @param s Settings of the DecisionEngineRouter namespace
+	 */
+	public TeciCheckpoint(Settings s) {
+		this.saveDay = 1;
+		if (s.contains(SAVE_FILE_S)) {
+			this.saveFile = s.getSetting(SAVE_FILE_S);
+		}
+		if (s.contains(SAVE_DAY_S)) {
+			this.saveDay = s.getInt(SAVE_DAY_S);
+		}
+		if (s.contains(LOAD_FILE_S)) {
+			this.loadFile = s.getSetting(LOAD_FILE_S);
+		}
+	}
+
+	/**
+	 * Restores the configured checkpoint (if any). Should be called when the
+	 * hosts of the scenario have been created.
+	 * @param hosts The hosts of the scenario
+	 */
+	public void scenarioStarted(List<DTNHost> hosts) {
+		if (loadFile == null) {
+			return;
+		}
+		try {
+			load(loadFile, hosts);
+		} catch (IOException e) {
+			throw new SimError("Can't restore TECI checkpoint from '" +
+					loadFile + "'", e);
+		}
+	}
+
+	/**
+	 * Writes the checkpoint if the configured number of days is done.
+	 * Called by the slot system when a new day starts.
+	 * @param newDay The day that just started
+	 * @param hosts The hosts of the scenario
+	 */
+	public void dayStarted(long newDay, List<DTNHost> hosts) {
+		if (saveFile == null || newDay - 1 != saveDay) {
+			return;
+		}
+		try {
+			save(saveFile, hosts);
+		} catch (IOException e) {
+			throw new SimError("Can't write TECI checkpoint to '" +
+					saveFile + "'", e);
+		}
+	}
+
+	/**
+	 * Writes the learned state of the hosts to a file
+	 * @param file Name of the file
+	 * @param hosts The hosts whose state is written
+	 * @throws IOException if writing the file fails
+	 */
+	public static void save(String file, List<DTNHost> hosts)
+		throws IOException {
+		/* collect the interest names so that each is written only once */
+		Map<String, Integer> interestIds = new HashMap<String, Integer>();
+		List<String> interests = new ArrayList<String>();
+		for (DTNHost h : hosts) {
+			DecisionEngineRouter r = (DecisionEngineRouter)h.getRouter();
+			addInterests(r.getweightToInterests(), interestIds, interests);
+			for (Map<String, Double> slot :
+					r.getAverageConnectedTimeToInterests()) {
+				addInterests(slot, interestIds, interests);
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(SlotTimeCheck.getnumberofslots());
+			out.writeLong(SlotTimeCheck.getDay());
+			out.writeInt(SlotTimeCheck.getcurrentslot());
+
+			out.writeInt(interests.size());
+			for (String interest : interests) {
+				out.writeUTF(interest);
+			}
+
+			out.writeInt(hosts.size());
+			for (DTNHost h : hosts) {
+				DecisionEngineRouter r = (DecisionEngineRouter)h.getRouter();
+				out.writeInt(h.getAddress());
+				writeValues(out, r.getweightToInterests(), interestIds);
+				for (Map<String, Double> slot :
+						r.getAverageConnectedTimeToInterests()) {
+					writeValues(out, slot, interestIds);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Restores the learned state of the hosts from a file
+	 * @param file Name of the file
+	 * @param hosts The hosts whose state is restored
+	 * @throws IOException if reading the file fails
+	 * @throws SimError if the checkpoint doesn't match the scenario
+	 */
+	public static void load(String file, List<DTNHost> hosts)
+		throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new SimError("'" + file + "' is not a TECI checkpoint");
+			}
+			int nrofSlots = in.readInt();
+			if (nrofSlots != SlotTimeCheck.getnumberofslots()) {
+				throw new SimError("Checkpoint has " + nrofSlots +
+						" slots but the scenario uses " +
+						SlotTimeCheck.getnumberofslots());
+			}
+			long day = in.readLong();
+			int slot = in.readInt();
+
+			String [] interests = new String[in.readInt()];
+			for (int i = 0; i < interests.length; i++) {
+				interests[i] = in.readUTF();
+			}
+
+			int nrofHosts = in.readInt();
+			if (nrofHosts != hosts.size()) {
+				throw new SimError("Checkpoint has " + nrofHosts +
+						" hosts but the scenario has " + hosts.size());
+			}
+			for (int i = 0; i < nrofHosts; i++) {
+				DTNHost h = hosts.get(i);
+				int address = in.readInt();
+				if (address != h.getAddress()) {
+					throw new SimError("Checkpoint host " + address +
+							" doesn't match " + h);
+				}
+				Map<String, Double> weights = readValues(in, interests);
+				List<Map<String, Double>> averages =
+					new ArrayList<Map<String, Double>>(nrofSlots);
+				for (int j = 0; j < nrofSlots; j++) {
+					averages.add(readValues(in, interests));
+				}
+				((DecisionEngineRouter)h.getRouter()).restoreLearnedState(
+						averages, weights);
+			}
+
+			SlotTimeCheck.restore(day, slot);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void addInterests(Map<String, Double> values,
+			Map<String, Integer> interestIds, List<String> interests) {
+		for (String interest : values.keySet()) {
+			if (!interestIds.containsKey(interest)) {
+				interestIds.put(interest, interests.size());
+				interests.add(interest);
+			}
+		}
+	}
+
+	private static void writeValues(DataOutputStream out,
+			Map<String, Double> values, Map<String, Integer> interestIds)
+		throws IOException {
+		out.writeInt(values.size());
+		for (Map.Entry<String, Double> e : values.entrySet()) {
+			out.writeInt(interestIds.get(e.getKey()));
+			out.writeDouble(e.getValue());
+		}
+	}
+
+	private static Map<String, Double> readValues(DataInputStream in,
+			String [] interests) throws IOException {
+		int size = in.readInt();
+		Map<String, Double> values = new HashMap<String, Double>();
+		for (int i = 0; i < size; i++) {
+			String interest = interests[in.readInt()];
+			values.put(interest, in.readDouble());
+		}
+		return values;
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * DurationHistogram.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package routing.community;
+
+/**
+ * Running statistics of contact durations in buckets of doubling length 
+ * (under 1 s, 1-2 s, 2-4 s, ...), each with the count and sum of the 
+ * durations in it. The memory and the cost of a query are fixed however 
+ * many contacts are added.
+ */
+public class DurationHistogram
+{
+	/** Number of buckets (the last one takes all the longer durations) */
+	public static final int NROF_BUCKETS = 24;
+	
+	/** Number of durations in each bucket */
+	private int [] counts;
+	/** Sum of the durations in each bucket */
+	private double [] sums;
+	
+	/**
+	 * Creates an empty histogram
+	 */
+	public DurationHistogram()
+	{
+		this.counts = new int[NROF_BUCKETS];
+		this.sums = new double[NROF_BUCKETS];
+	}
+	
+	/**
+	 * Adds a duration
+	 * @param length The duration (seconds)
+	 */
+	public void add(double length)
+	{
+		int b = length < 1 ? 0 : 
+			Math.min(NROF_BUCKETS - 1, 1 + Math.getExponent(length));
+		counts[b]++;
+		sums[b] += length;
+	}
+	
+	/**
+	 * Returns the mean residual of the durations longer than the given 
+	 * time, i.e. how much longer a contact that has lasted that long is 
+	 * expected to last. The durations of the bucket the time falls in count
+	 * as their mean.
+	 * @param elapsed Time the contact has lasted (seconds)
+	 * @return The mean residual or -1 if no duration is longer
+	 */
+	public double getMeanResidual(double elapsed)
+	{
+		double sum = 0;
+		int count = 0;
+		for(int b = 0; b < NROF_BUCKETS; b++)
+		{
+			if(counts[b] > 0 && sums[b] / counts[b] > elapsed)
+			{
+				sum += sums[b] - counts[b] * elapsed;
+				count += counts[b];
+			}
+		}
+		return count > 0 ? sum / count : -1;
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * LabelPropagationCommunity.java is part of SCORP.
+ *
+ * Copyright 2013 SITI, Universidade Lusófona
+ *
+ * SCORP is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SCORP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SCORP.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package routing.community;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import core.DTNHost;
+import core.SimScenario;
+import core.TopicTrie;
+
+/**
+ * Community detection by weighted label propagation, run incrementally by
+ * each host on its own contacts.
+ * <P>
+ * Every host carries a community label (initially its own address) and the
+ * cumulative contact time with each peer it has met. Peers with at least
+ * the familiar threshold of contact time are the host's familiar set. When
+ * two hosts meet they learn each other's current label and whenever the
+ * label of a familiar peer or the contact time with it changes, the host
+ * takes the label with the most contact time among its familiar peers
+ * (keeping its own label on ties). A host's community is made of the
+ * familiar peers known to have the same label.
+ * </P><P>
+ * An update only looks at the familiar set of one host, so the cost per
+ * contact doesn't grow with the number of hosts in the world.
+ * </P>
+ */
+public class LabelPropagationCommunity
+{
+	/** Label of this host's community */
+	protected int label;
+	/** Contact time needed before a peer is familiar */
+	protected double familiarThreshold;
+	/** Cumulative contact time with each peer met */
+	protected Map<DTNHost, Double> contactTimes;
+	/** Last known labels of the familiar peers */
+	protected Map<DTNHost, Integer> familiarLabels;
+	/** The host this detector belongs to */
+	protected DTNHost host;
+	/** Interests of this host and the members of its community (null when
+	 * they must be recomputed) */
+	protected Set<String> communityInterests;
+	/** Interest changes of the index when the interests were computed */
+	private int interestChanges;
+	/** Trie of the community interests, for hierarchical topics (null when
+	 * it must be rebuilt) */
+	private TopicTrie<String> interestTrie;
+
+	/**
+	 * Creates a detector for a host that hasn't met anybody
+	 *
+	 * @param host The host
+	 * @param familiarThreshold Contact time (seconds) needed before a peer
+	 * is familiar
+	 */
+	public LabelPropagationCommunity(DTNHost host, double familiarThreshold)
+	{
+		this.host = host;
+		this.label = host.getAddress();
+		this.familiarThreshold = familiarThreshold;
+		this.contactTimes = new HashMap<DTNHost, Double>();
+		this.familiarLabels = new HashMap<DTNHost, Integer>();
+	}
+
+	/**
+	 * Lets two hosts that just met learn each other's labels. Called once
+	 * per connection, for both hosts.
+	 *
+	 * @param myHost This host
+	 * @param peer The peer
+	 * @param peerCommunity Detector of the peer
+	 */
+	public void newConnection(DTNHost myHost, DTNHost peer,
+			LabelPropagationCommunity peerCommunity)
+	{
+		int myLabel = this.label;
+		if(this.familiarLabels.containsKey(peer))
+			this.learnLabel(peer, peerCommunity.label, false);
+		if(peerCommunity.familiarLabels.containsKey(myHost))
+			peerCommunity.learnLabel(myHost, myLabel, false);
+	}
+
+	/**
+	 * Adds the duration of a contact that ended to the contact time with
+	 * the peer. Called by each of the two hosts.
+	 *
+	 * @param myHost This host
+	 * @param peer The peer
+	 * @param peerCommunity Detector of the peer
+	 * @param duration Duration of the contact (seconds)
+	 */
+	public void connectionLost(DTNHost myHost, DTNHost peer,
+			LabelPropagationCommunity peerCommunity, double duration)
+	{
+		Double old = contactTimes.get(peer);
+		double time = (old == null ? 0 : old) + duration;
+		contactTimes.put(peer, time);
+		if(time >= familiarThreshold)
+			learnLabel(peer, peerCommunity.label, true);
+	}
+
+	/**
+	 * Returns true if a host is known to belong to this host's community
+	 *
+	 * @param h The host
+	 * @return true if h is a familiar peer with the same label
+	 */
+	public boolean isHostInCommunity(DTNHost h)
+	{
+		Integer l = familiarLabels.get(h);
+		return l != null && l == label;
+	}
+
+	/**
+	 * Returns the label of this host's community
+	 *
+	 * @return The label
+	 */
+	public int getLabel()
+	{
+		return label;
+	}
+
+	/**
+	 * Returns the interests of this host and the known members of its
+	 * community. They are recomputed after the label changed or any host
+	 * joined or left an interest.
+	 *
+	 * @return The interests
+	 */
+	public Set<String> getCommunityInterests()
+	{
+		int changes = SimScenario.getInstance().getInterestIndex().
+			getNrofChanges();
+		if(communityInterests == null || changes != interestChanges)
+		{
+			communityInterests = new HashSet<String>(host.getInterests());
+			for(Map.Entry<DTNHost, Integer> e : familiarLabels.entrySet())
+			{
+				if(e.getValue() == label)
+					communityInterests.addAll(e.getKey().getInterests());
+			}
+			interestChanges = changes;
+			interestTrie = null;
+		}
+		return communityInterests;
+	}
+
+	/**
+	 * Returns true if any of the given content types is of interest to the
+	 * community. With hierarchical topics the community interests are topic
+	 * filters and are matched through a trie (e.g. sports/# matches 
+	 * sports/football).
+	 *
+	 * @param types The content types
+	 * @return true if an interest of the community matches a content type
+	 */
+	public boolean isOfInterest(List<String> types)
+	{
+		Set<String> interests = getCommunityInterests();
+		if(!SimScenario.getInstance().getInterestIndex().isHierarchical())
+		{
+			for(String type : types)
+			{
+				if(interests.contains(type))
+					return true;
+			}
+			return false;
+		}
+		if(interestTrie == null)
+		{
+			interestTrie = new TopicTrie<String>();
+			for(String interest : interests)
+				interestTrie.put(interest, interest);
+		}
+		for(String type : types)
+		{
+			if(interestTrie.matches(type))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records the label of a familiar peer and updates this host's label
+	 * 
+	 * @param timeChanged Has the contact time with the peer changed
+	 */
+	private void learnLabel(DTNHost peer, int peerLabel, 
+			boolean timeChanged)
+	{
+		Integer old = familiarLabels.put(peer, peerLabel);
+		if(!timeChanged && old != null && old == peerLabel)
+			return; // nothing changed
+
+		Map<Integer, Double> scores = new HashMap<Integer, Double>();
+		for(Map.Entry<DTNHost, Integer> e : familiarLabels.entrySet())
+		{
+			Double s = scores.get(e.getValue());
+			scores.put(e.getValue(), (s == null ? 0 : s) + contactTimes.get(e.getKey()));
+		}
+		Double best = scores.get(label);
+		for(Map.Entry<Integer, Double> e : scores.entrySet())
+		{
+			if(best == null || e.getValue() > best)
+			{
+				best = e.getValue();
+				label = e.getKey();
+			}
+		}
+
+		communityInterests = null;
+	}
+}
@@ -25,6 +25,7 @@ package routing.community;
 
 import java.util.*;
 import core.*;
+import routing.ContactAwareDecisionEngine;
 import routing.DecisionEngineRouter;
 import routing.MessageRouter;
 import routing.RoutingDecisionEngine;
@@ -36,13 +37,93 @@ import java.util.Map;
 import java.util.Set;
 
 /** SCORP **/
-public class Scorp implements RoutingDecisionEngine{
+public class Scorp implements RoutingDecisionEngine, ContactAwareDecisionEngine{
+	
+	/** Initial copy budget of the created messages -setting id ({@value}).
+	 * If set, a holder gives half of its copies to the peer it forwards a 
+	 * message to and, with only one copy left, hands the message over. */
+	public static final String COPY_BUDGET_S = "copyBudget";
+	/** Relative forwarding margin -setting id ({@value}). The peer's weight
+	 * must exceed this host's weight by this fraction (default 0). */
+	public static final String MARGIN_REL_S = "forwardMarginRel";
+	/** Absolute forwarding margin -setting id ({@value}). The peer's weight
+	 * must exceed this host's weight by this much (default 0). */
+	public static final String MARGIN_ABS_S = "forwardMarginAbs";
+	/** Number of recent holders of a message not to forward it back to 
+	 * -setting id ({@value}). Default 0. */
+	public static final String RECENT_HOLDERS_S = "recentHolders";
+	/** Don't forward messages to hosts on their path -setting id ({@value}).
+	 * Default false. */
+	public static final String LOOP_FREE_S = "loopFree";
+	/** Number of upcoming slots for slot-predictive forwarding -setting id
+	 * ({@value}). If set, messages are forwarded to peers that are expected
+	 * to be connected longer to the message's interest during the next slots
+	 * (within the message's TTL) instead of comparing the social weights. */
+	public static final String SLOT_PREDICTIVE_S = "slotPredictive";
+	/** Break weight ties by importance -setting id ({@value}). If true, a 
+	 * message is forwarded to a peer with the same weight to its interest 
+	 * (e.g. when neither has met the interest yet) if the peer is more 
+	 * important in the contact graph. Needs the importance of the 
+	 * DecisionEngineRouter. Default false. */
+	public static final String IMPORTANCE_TIE_S = "importanceTieBreaker";
+	/** Prune peers by community -setting id ({@value}). If true, hosts 
+	 * detect their communities incrementally on their contacts (see 
+	 * {@link LabelPropagationCommunity}) and a message whose interest is in
+	 * this host's community isn't forwarded to peers of other communities 
+	 * that don't have it. Default false. */
+	public static final String COMMUNITY_PRUNING_S = "communityPruning";
+	/** Contact time (seconds) before a peer counts for the community 
+	 * detection -setting id ({@value}). Default 700. */
+	public static final String FAMILIAR_THRESHOLD_S = "familiarThreshold";
+	/** Sum the weights of the content types of a message -setting id 
+	 * ({@value}). If true, the weight of a host towards a message with 
+	 * several content types is the sum of its weights towards them, 
+	 * otherwise the largest of them. Default false. */
+	public static final String MULTI_INTEREST_SUM_S = "multiInterestSum";
+	/** Message property holding the copies left to the holder */
+	public static final String COPIES_PROP = "Scorp.copies";
+	
+	/** Number of contact durations remembered per slot */
+	public static final int SLOT_HISTORY_SIZE = 100;
+	/** Forwarding utility of delivering a message to an interested peer (the
+	 * weight gains of forwarding are between 0 and 1) */
+	public static final double DELIVERY_UTILITY = 2.0;
 	
 	protected Map<DTNHost, Double> startTimestamps;
 	protected Map<DTNHost, List<Duration>> connHistory;
+	/** Statistics of the contact durations with each peer */
+	protected Map<DTNHost, DurationHistogram> durationStats;
+	/** Latest contact durations (with any peer) ended in each slot */
+	protected Map<Integer, LinkedList<Double>> slotDurations;
+	/** Initial copy budget of the messages (0 if not limited) */
+	protected int copyBudget;
+	/** Relative margin a peer's weight must beat this host's weight by */
+	protected double marginRel;
+	/** Absolute margin a peer's weight must beat this host's weight by */
+	protected double marginAbs;
+	/** Number of latest hosts on a message's path it isn't forwarded to */
+	protected int recentHolders;
+	/** Should messages never be forwarded to hosts they have visited */
+	protected boolean loopFree;
+	/** Number of upcoming slots compared (0 if the weights are compared) */
+	protected int slotPredictive;
+	/** Should weight ties be broken by importance */
+	protected boolean importanceTieBreaker;
+	/** Should peers be pruned by community */
+	protected boolean communityPruning;
+	/** Contact time needed before a peer is familiar */
+	protected double familiarThreshold;
+	/** Should the weights of the content types of a message be summed */
+	protected boolean multiInterestSum;
+	/** Community detection of this host (created when first needed) */
+	protected LabelPropagationCommunity community;
 	
 	private  Map<DTNHost, Map<String, Double>> _weightToInterests;
 	private  Map<DTNHost, Double> _importances;
+	/** Tries of the weights of the hosts, with hierarchical topics */
+	private Map<DTNHost, TopicTrie<Double>> weightTries;
+	/** Weights each trie was built from */
+	private Map<DTNHost, Map<String, Double>> weightTrieSources;
 
 	
 	/**
@@ -54,6 +135,30 @@ public class Scorp implements RoutingDecisionEngine{
 	public Scorp(Settings s){
 		this._weightToInterests = new HashMap<DTNHost, Map<String, Double>>();
 		this._importances = new HashMap<DTNHost, Double>();
+		this.weightTries = new HashMap<DTNHost, TopicTrie<Double>>();
+		this.weightTrieSources = new HashMap<DTNHost, Map<String, Double>>();
+		if(s.contains(COPY_BUDGET_S))
+			this.copyBudget = s.getInt(COPY_BUDGET_S);
+		if(s.contains(MARGIN_REL_S))
+			this.marginRel = s.getDouble(MARGIN_REL_S);
+		if(s.contains(MARGIN_ABS_S))
+			this.marginAbs = s.getDouble(MARGIN_ABS_S);
+		if(s.contains(RECENT_HOLDERS_S))
+			this.recentHolders = s.getInt(RECENT_HOLDERS_S);
+		if(s.contains(LOOP_FREE_S))
+			this.loopFree = s.getBoolean(LOOP_FREE_S);
+		if(s.contains(SLOT_PREDICTIVE_S))
+			this.slotPredictive = s.getInt(SLOT_PREDICTIVE_S);
+		if(s.contains(IMPORTANCE_TIE_S))
+			this.importanceTieBreaker = s.getBoolean(IMPORTANCE_TIE_S);
+		if(s.contains(COMMUNITY_PRUNING_S))
+			this.communityPruning = s.getBoolean(COMMUNITY_PRUNING_S);
+		if(s.contains(FAMILIAR_THRESHOLD_S))
+			this.familiarThreshold = s.getDouble(FAMILIAR_THRESHOLD_S);
+		else
+			this.familiarThreshold = 700;
+		if(s.contains(MULTI_INTEREST_SUM_S))
+			this.multiInterestSum = s.getBoolean(MULTI_INTEREST_SUM_S);
 	}
 	
 	/**
@@ -66,9 +171,22 @@ public class Scorp implements RoutingDecisionEngine{
 	{
 		this._weightToInterests = new HashMap<DTNHost, Map<String, Double>>();
 		this._importances = new HashMap<DTNHost, Double>();
+		this.weightTries = new HashMap<DTNHost, TopicTrie<Double>>();
+		this.weightTrieSources = new HashMap<DTNHost, Map<String, Double>>();
 		startTimestamps = new HashMap<DTNHost, Double>();
 		connHistory = new HashMap<DTNHost, List<Duration>>();
-		
+		durationStats = new HashMap<DTNHost, DurationHistogram>();
+		slotDurations = new HashMap<Integer, LinkedList<Double>>();
+		this.copyBudget = proto.copyBudget;
+		this.marginRel = proto.marginRel;
+		this.marginAbs = proto.marginAbs;
+		this.recentHolders = proto.recentHolders;
+		this.loopFree = proto.loopFree;
+		this.slotPredictive = proto.slotPredictive;
+		this.importanceTieBreaker = proto.importanceTieBreaker;
+		this.communityPruning = proto.communityPruning;
+		this.familiarThreshold = proto.familiarThreshold;
+		this.multiInterestSum = proto.multiInterestSum;
 	}
 
 	public void connectionUp(DTNHost thisHost, DTNHost peer){}
@@ -87,7 +205,8 @@ public class Scorp implements RoutingDecisionEngine{
 		this.startTimestamps.put(peer, SimClock.getTime());
 		de.startTimestamps.put(myHost, SimClock.getTime());
 		
-//		this.community.newConnection(myHost, peer, de.community);
+		if(communityPruning)
+			this.getCommunity(myHost).newConnection(myHost, peer, de.getCommunity(peer));
 
 	}
 	
@@ -108,7 +227,29 @@ public class Scorp implements RoutingDecisionEngine{
 		
 		// add this connection to the list
 		if(etime - time > 0)
+		{
 			history.add(new Duration(time, etime));
+			DurationHistogram stats = durationStats.get(peer);
+			if(stats == null)
+			{
+				stats = new DurationHistogram();
+				durationStats.put(peer, stats);
+			}
+			stats.add(etime - time);
+			if(communityPruning)
+				this.getCommunity(thisHost).connectionLost(thisHost, peer, 
+						this.getOtherDecisionEngine(peer).getCommunity(peer), etime - time);
+			
+			LinkedList<Double> slotHistory = slotDurations.get(SlotTimeCheck.getcurrentslot());
+			if(slotHistory == null)
+			{
+				slotHistory = new LinkedList<Double>();
+				slotDurations.put(SlotTimeCheck.getcurrentslot(), slotHistory);
+			}
+			slotHistory.add(etime - time);
+			if(slotHistory.size() > SLOT_HISTORY_SIZE)
+				slotHistory.removeFirst();
+		}
 		
 		startTimestamps.remove(peer);
 
@@ -117,100 +258,179 @@ public class Scorp implements RoutingDecisionEngine{
 
 	
 	public boolean newMessage(Message m){
+		if(copyBudget > 0)
+			m.addProperty(COPIES_PROP, copyBudget);
 		return true; // Always keep and attempt to forward a created message
 	}
 
 	public boolean isFinalDest(Message m, DTNHost aHost, boolean itIsFinal){
-		return aHost.getInterests().contains(m.getContentType());
+		return m.isOfInterestTo(aHost);
 	}
 
 	public boolean shouldSaveReceivedMessage(Message m, DTNHost thisHost){
-		Map<String,Double> tempListThis = new HashMap<String,Double>();
-
-		_weightToInterests=DecisionEngineRouter.weightToInterestsCopy;
-		double ThisWeightToInterest = 0.0;
+		Integer copies = (Integer)m.getProperty(COPIES_PROP);
+		if(copies != null && copies > 1)
+			m.updateProperty(COPIES_PROP, copies / 2); // the sender keeps the rest
 		
-		if(_weightToInterests.containsKey(thisHost)){
-			tempListThis=_weightToInterests.get(thisHost);
-			Set<String> interestThis= tempListThis.keySet();
-			Iterator<String> hostIterator1=interestThis.iterator();
-			if(tempListThis.size()!=0){
-				while(hostIterator1.hasNext()){            
-					String interest = hostIterator1.next();
-					if(interest.equalsIgnoreCase(m.getContentType())){
-						ThisWeightToInterest=tempListThis.get(interest);	
-					}
-				}
-			}
-		}
+		_weightToInterests=getKnownWeights(thisHost);
+		double ThisWeightToInterest = getMessageWeight(thisHost, _weightToInterests.get(thisHost), m);
 		
 		if (ThisWeightToInterest>0.0){
 			return true;
 		}
-		return thisHost.getInterests().contains(m.getContentType());
+		return m.isOfInterestTo(thisHost);
 	}
 
 	public boolean shouldSendMessageToHost(Message m, DTNHost thisHost, DTNHost otherHost)
 	{
-		_weightToInterests=DecisionEngineRouter.weightToInterestsCopy;
-		_importances=DecisionEngineRouter.importCopy;
-		String messageContent = m.getContentType();
-		
+		_weightToInterests=getKnownWeights(thisHost);
+		_importances=DecisionEngineRouter.getImportCopy();
 		if(checkMessage(m, otherHost)){ 
 			return false;
 		}
 		
-		else if(otherHost.getInterests().contains(messageContent)){
+		else if(m.isOfInterestTo(otherHost)){
 			return true; // trivial to deliver to final dest
 		}
 		
+		else if(loopFree && m.hasVisited(otherHost)){
+			return false; // the peer has carried the message already
+		}
+		
+		else if(isRecentHolder(m, otherHost)){
+			return false; // don't bounce the message back
+		}
+		
+		else if(communityPruning && isOutsideCommunity(m, thisHost, otherHost)){
+			return false; // keep the message in the community that wants it
+		}
+		
 		/*
 		 * Here is where we decide when to forward along a message.  
 		 */
 		
+		else if(slotPredictive > 0){
+			double until = getPredictionEnd(m);
+			double thisTime = getExpectedConnectedTime(thisHost, m, until);
+			double otherTime = getExpectedConnectedTime(otherHost, m, until);
+			return otherTime > thisTime * (1 + marginRel) + marginAbs;
+		}
+		
 		else if(_weightToInterests.containsKey(thisHost) || _weightToInterests.containsKey(otherHost)){ 
 	
-			Map<String, Double> tempListThis = new HashMap<String,Double>();
-			Map<String,Double> tempListOther = new HashMap<String,Double>();
-			
-			double ThisWeightToInterest = 0.0;
-			double OtherWeightToInterest = 0.0;
-			
-			tempListThis=_weightToInterests.get(thisHost);
-			tempListOther=_weightToInterests.get(otherHost);
-			
-			Set<String> hostset= tempListThis.keySet();
-			Iterator<String> hostIterator=hostset.iterator();
-			
-			if(tempListThis.size()!=0){
-				while(hostIterator.hasNext()){
-					String currenthost = hostIterator.next();
-					if(currenthost.equalsIgnoreCase(messageContent)){
-						ThisWeightToInterest=tempListThis.get(currenthost);	
-					}							
-				}
-			} 
-					
-			Set<String> hostset1= tempListOther.keySet();
-			Iterator<String> hostIterator1=hostset1.iterator();
-			
-			if(tempListOther.size()!=0){
-				while(hostIterator1.hasNext()){            
-					String currenthost = hostIterator1.next();
-					if(currenthost.equalsIgnoreCase(messageContent)){
-						OtherWeightToInterest=tempListOther.get(currenthost);	
-					}
-				}
-			}
+			/* the peer's weights may be unknown yet (null) */
+			double ThisWeightToInterest = getMessageWeight(thisHost, _weightToInterests.get(thisHost), m);
+			double OtherWeightToInterest = getMessageWeight(otherHost, _weightToInterests.get(otherHost), m);
 							
-			if(OtherWeightToInterest>ThisWeightToInterest){
-				return true; //other node has better weight
+			if(OtherWeightToInterest > ThisWeightToInterest * (1 + marginRel) + marginAbs){
+				return true; //other node has significantly better weight
+			}
+			
+			if(importanceTieBreaker && OtherWeightToInterest == ThisWeightToInterest){
+				return isMoreImportant(otherHost, thisHost);
 			}
 
 		}
+		
+		else if(importanceTieBreaker){
+			return isMoreImportant(otherHost, thisHost); // no weights yet
+		}
 		return false; 
 	}
 	
+	/**
+	 * Returns true if the message's interest is in this host's community but
+	 * the peer is in another community that doesn't have it
+	 */
+	private boolean isOutsideCommunity(Message m, DTNHost thisHost, DTNHost otherHost)
+	{
+		LabelPropagationCommunity mine = this.getCommunity(thisHost);
+		LabelPropagationCommunity theirs = 
+			this.getOtherDecisionEngine(otherHost).getCommunity(otherHost);
+		return mine.getLabel() != theirs.getLabel() && 
+			mine.isOfInterest(m.getContentTypes()) && 
+			!theirs.isOfInterest(m.getContentTypes());
+	}
+	
+	/**
+	 * Returns the community detection of this engine's host, creating it if
+	 * needed
+	 * 
+	 * @param host The host of this engine
+	 */
+	protected LabelPropagationCommunity getCommunity(DTNHost host)
+	{
+		if(community == null)
+			community = new LabelPropagationCommunity(host, familiarThreshold);
+		return community;
+	}
+	
+	/**
+	 * Returns the social weights known to a host: the ones published by all
+	 * hosts or, if the weights are exchanged on contact, its own and the 
+	 * ones received from its peers
+	 */
+	private Map<DTNHost, Map<String, Double>> getKnownWeights(DTNHost host)
+	{
+		return ((DecisionEngineRouter)host.getRouter()).getKnownWeights();
+	}
+	
+	/**
+	 * Returns true if a host has a higher published importance than another 
+	 * one (a host that hasn't published any has none)
+	 */
+	private boolean isMoreImportant(DTNHost host, DTNHost than)
+	{
+		Double importance = _importances.get(host);
+		Double other = _importances.get(than);
+		return importance != null && (other == null || importance > other);
+	}
+	
+	/**
+	 * Returns the end of the period slot-predictive forwarding looks at: the
+	 * end of the last of the upcoming slots, or the expiry of the message if
+	 * it is earlier
+	 * 
+	 * @param m The message
+	 * @return The end of the period (simulation time)
+	 */
+	protected double getPredictionEnd(Message m)
+	{
+		double now = SimClock.getTime();
+		double until = SlotTimeCheck.getNextSlotEnd(now);
+		int slot = SlotTimeCheck.getcurrentslot();
+		for(int i = 1; i < slotPredictive; i++)
+		{
+			slot = (slot + 1) % SlotTimeCheck.getnumberofslots();
+			if(slot == 0) // time of the day not covered by the slots
+				until += 86400 - SlotTimeCheck.getslotend(SlotTimeCheck.getnumberofslots() - 1);
+			until += SlotTimeCheck.getslotlength(slot);
+		}
+		if(m.getTtl() != Integer.MAX_VALUE)
+			until = Math.min(until, now + m.getTtl() * 60.0);
+		return until;
+	}
+	
+	/**
+	 * Checks whether a host is one of the latest hosts on a message's path
+	 * before the current holder (the last host of the path)
+	 * 
+	 * @param m The message
+	 * @param host The host
+	 * @return true if the host held the message recently
+	 */
+	protected boolean isRecentHolder(Message m, DTNHost host)
+	{
+		List<DTNHost> path = m.getHops();
+		int last = path.size() - 2; // the one before the current holder
+		for(int i = last; i >= 0 && i > last - recentHolders; i--)
+		{
+			if(path.get(i) == host)
+				return true;
+		}
+		return false;
+	}
+	
 	//ADDED Checks whether a nodes has a weight to a specific destination
 	public boolean checkWeightToDest(Map<DTNHost,Double> weightList, DTNHost dest){
 		if(weightList.get(dest)!=null){
@@ -243,26 +463,19 @@ public class Scorp implements RoutingDecisionEngine{
 	}
 
 	public boolean shouldDeleteSentMessage(Message m, DTNHost otherHost, DTNHost thisHost){
-		Map<String,Double> tempListThis = new HashMap<String,Double>();
-
-		_weightToInterests=DecisionEngineRouter.weightToInterestsCopy;
-		double ThisWeightToInterest = 0.0;
-		
-		if(_weightToInterests.containsKey(thisHost)){
-			tempListThis=_weightToInterests.get(thisHost);
-			Set<String> interestThis= tempListThis.keySet();
-			Iterator<String> hostIterator1=interestThis.iterator();
-			if(tempListThis.size()!=0){
-				while(hostIterator1.hasNext()){            
-					String interest = hostIterator1.next();
-					if(interest.equalsIgnoreCase(m.getContentType())){
-						ThisWeightToInterest=tempListThis.get(interest);	
-					}
-				}
-			}
+		Integer copies = (Integer)m.getProperty(COPIES_PROP);
+		if(copies != null)
+		{
+			if(copies <= 1)
+				return true; // single copy: handed over to the peer
+			m.updateProperty(COPIES_PROP, copies - copies / 2);
+			return false; // keeps its half of the budget
 		}
+		
+		_weightToInterests=getKnownWeights(thisHost);
+		double ThisWeightToInterest = getMessageWeight(thisHost, _weightToInterests.get(thisHost), m);
 			
-			if(!thisHost.getInterests().contains(m.getContentType()) && ThisWeightToInterest == 0.0){
+			if(!m.isOfInterestTo(thisHost) && ThisWeightToInterest == 0.0){
 				return true;
 			}
 			else if (ThisWeightToInterest>0){
@@ -271,6 +484,162 @@ public class Scorp implements RoutingDecisionEngine{
 		return false;
 	}
 
+	/**
+	 * Predicts the remaining contact time as the mean residual life of the 
+	 * past contacts with the peer that lasted longer than the current one 
+	 * has so far (from the running statistics of the peer, not the whole 
+	 * history). Without such contacts, the latest contacts of the current 
+	 * slot (with any peer) are used.
+	 * 
+	 * @see routing.ContactAwareDecisionEngine#predictRemainingContactTime(core.DTNHost, core.DTNHost)
+	 */
+	public double predictRemainingContactTime(DTNHost thisHost, DTNHost peer)
+	{
+		Double start = startTimestamps.get(peer);
+		double elapsed = start == null ? 0 : SimClock.getTime() - start;
+		
+		DurationHistogram stats = durationStats.get(peer);
+		if(stats != null)
+		{
+			double residual = stats.getMeanResidual(elapsed);
+			if(residual >= 0)
+				return residual;
+		}
+		
+		double sum = 0;
+		int count = 0;
+		List<Double> slotHistory = slotDurations.get(SlotTimeCheck.getcurrentslot());
+		if(slotHistory != null)
+		{
+			for(double length : slotHistory)
+			{
+				if(length > elapsed)
+				{
+					sum += length - elapsed;
+					count++;
+				}
+			}
+		}
+		return count > 0 ? sum / count : -1;
+	}
+	
+	/**
+	 * Delivering to an interested peer is the most useful, otherwise the
+	 * utility is the relative gain of the peer's weight to the message's 
+	 * interest over this host's weight.
+	 * 
+	 * @see routing.ContactAwareDecisionEngine#getForwardingUtility(core.Message, core.DTNHost, core.DTNHost)
+	 */
+	public double getForwardingUtility(Message m, DTNHost thisHost, DTNHost peer)
+	{
+		if(m.isOfInterestTo(peer))
+			return DELIVERY_UTILITY;
+		
+		double thisWeight = getWeight(thisHost, thisHost, m);
+		double peerWeight = getWeight(thisHost, peer, m);
+		if(peerWeight <= thisWeight)
+			return 0.0;
+		return (peerWeight - thisWeight) / peerWeight;
+	}
+	
+	/**
+	 * Returns the social weight of a host towards the interests of a message
+	 * as known by another host
+	 * 
+	 * @param viewer The host whose knowledge is used
+	 * @param host The host
+	 * @param m The message
+	 * @return The weight or 0 if the host has none
+	 */
+	protected double getWeight(DTNHost viewer, DTNHost host, Message m)
+	{
+		return getMessageWeight(host, getKnownWeights(viewer).get(host), m);
+	}
+	
+	/**
+	 * Returns the weight of a host towards the content types of a message: 
+	 * the largest (or, with {@value #MULTI_INTEREST_SUM_S}, the sum) of the
+	 * weights towards each of them. With hierarchical topics the weight 
+	 * towards a content type is the largest weight of the interests 
+	 * matching it. A content type the host doesn't track (see the topK of
+	 * DecisionEngineRouter) gets the host's upper bound if it uses one.
+	 * 
+	 * @param host The host the weights are of
+	 * @param weights Weights per interest (null if none are known)
+	 * @param m The message
+	 * @return The weight or 0 if there is none
+	 */
+	protected double getMessageWeight(DTNHost host, Map<String, Double> weights, Message m)
+	{
+		if(weights == null || weights.isEmpty())
+			return 0.0;
+		TopicTrie<Double> trie = null;
+		if(SimScenario.getInstance().getInterestIndex().isHierarchical())
+			trie = getWeightTrie(host, weights);
+		double total = 0.0;
+		for(String type : m.getContentTypes())
+		{
+			Double weight = null;
+			if(trie != null)
+			{
+				for(Double w : trie.match(type))
+				{
+					if(weight == null || w > weight)
+						weight = w;
+				}
+			}
+			else
+			{
+				weight = weights.get(type);
+				if(weight == null)
+				{
+					for(Map.Entry<String, Double> e : weights.entrySet())
+					{
+						if(e.getKey().equalsIgnoreCase(type))
+							weight = e.getValue();
+					}
+				}
+			}
+			if(weight == null && ((DecisionEngineRouter)host.getRouter()).isUntrackedBound())
+				weight = weights.get(DecisionEngineRouter.UNTRACKED_INTEREST);
+			if(weight != null)
+				total = multiInterestSum ? total + weight : Math.max(total, weight);
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the trie of a host's weights, built again when the weights 
+	 * have been replaced
+	 */
+	private TopicTrie<Double> getWeightTrie(DTNHost host, Map<String, Double> weights)
+	{
+		TopicTrie<Double> trie = weightTries.get(host);
+		if(trie == null || weightTrieSources.get(host) != weights)
+		{
+			trie = new TopicTrie<Double>(weights);
+			weightTries.put(host, trie);
+			weightTrieSources.put(host, weights);
+		}
+		return trie;
+	}
+	
+	/**
+	 * Returns the connected time to the content types of a message a host 
+	 * expects until the given time, combined like the weights
+	 */
+	private double getExpectedConnectedTime(DTNHost host, Message m, double until)
+	{
+		DecisionEngineRouter r = (DecisionEngineRouter)host.getRouter();
+		double total = 0.0;
+		for(String type : m.getContentTypes())
+		{
+			double time = r.getExpectedConnectedTime(type, until);
+			total = multiInterestSum ? total + time : Math.max(total, time);
+		}
+		return total;
+	}
+
 	public boolean shouldDeleteOldMessage(Message m, DTNHost hostReportingOld)
 	{
 		Scorp de = this.getOtherDecisionEngine(hostReportingOld);